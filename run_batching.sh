@@ -9,3 +9,7 @@
 ./run.sh -D Q.batch-size=100 "$@"
 ./run.sh -D Q.batch-size=250 "$@"
 ./run.sh -D Q.batch-size=500 "$@"
+./run.sh -D Q.type=disruptor-latest -D Q.disruptor.timeout=0 -D Q.disruptor.lite-blocking=true -D Q.batch-size=500 -D Q.batch-adaptive=true -D Q.batch-linger-us=100 "$@"
+./run.sh -D Q.type=disruptor-latest -D Q.disruptor.timeout=0 -D Q.disruptor.lite-blocking=true -D Q.batch-size=500 -D Q.batch-adaptive=true -D Q.batch-linger-us=1000 "$@"
+./run.sh -D Q.batch-size=500 -D Q.batch-adaptive=true -D Q.batch-linger-us=100 "$@"
+./run.sh -D Q.batch-size=500 -D Q.batch-adaptive=true -D Q.batch-linger-us=1000 "$@"
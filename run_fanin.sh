@@ -0,0 +1,5 @@
+#!/bin/sh
+./run.sh -D Q.type=nb-disruptor-latest "$@"
+./run.sh -D Q.type=mpsc "$@"
+./run.sh -D Q.type=lanes "$@"
+./run.sh -D Q.type=lanes -D Q.lanes.lane-size=256 "$@"
@@ -0,0 +1,6 @@
+#!/bin/sh
+for type in java-array mpsc disruptor-latest; do
+  for idle in spin yield backoff; do
+    ./run.sh -D Q.type=$type -D EventThread.idle=$idle "$@"
+  done
+done
@@ -0,0 +1,6 @@
+#!/bin/sh
+#The cost of recording latency, with no estimation as the baseline
+./run.sh "$@" 'LAT_OBS_.*'
+for lat in -l -e -c -k; do
+  ./run.sh $lat "$@" 'LAT_OBS_.*'
+done
@@ -0,0 +1,8 @@
+#!/bin/sh
+#Load shedding in the pipeline, with watermark and with credit flow control.  deadline goes
+#by when an event was stamped, so latency has to be on for it to drop anything.
+for flow in watermark credit; do
+  for shed in drop-newest drop-oldest sample deadline; do
+    ./run.sh -l -D Test.flow=$flow -D Q.shed=$shed "$@" 'Q_PIPE_.*'
+  done
+done
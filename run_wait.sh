@@ -0,0 +1,10 @@
+#!/bin/sh
+for wait in blocking busy-spin yielding sleeping; do
+  ./run.sh -D Q.type=disruptor -D Q.disruptor.wait=$wait -D Q.disruptor.wait.count=true "$@"
+done
+for wait in blocking lite-blocking timeout-blocking busy-spin yielding sleeping phased-backoff; do
+  ./run.sh -D Q.type=disruptor-latest -D Q.disruptor.wait=$wait -D Q.disruptor.wait.count=true "$@"
+done
+./run.sh -D Q.type=disruptor-latest -D Q.disruptor.wait=phased-backoff -D Q.disruptor.wait.spin-us=1 -D Q.disruptor.wait.yield-us=10 -D Q.disruptor.wait.count=true "$@"
+./run.sh -D Q.type=disruptor-latest -D Q.disruptor.wait=phased-backoff -D Q.disruptor.wait.spin-us=100 -D Q.disruptor.wait.yield-us=1000 -D Q.disruptor.wait.count=true "$@"
+./run.sh -D Q.type=disruptor-latest -D Q.disruptor.wait=sleeping -D Q.disruptor.wait.sleep-retries=1000 -D Q.disruptor.wait.count=true "$@"
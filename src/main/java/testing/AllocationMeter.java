@@ -0,0 +1,60 @@
+package testing;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds up the bytes allocated by the threads that take part in a test.  Each thread
+ * measures itself with the per thread allocation counter HotSpot keeps, and adds what
+ * it allocated before it says it is done, so threads that exit are still counted.
+ * Background threads owned by the queues themselves are not counted.
+ */
+public class AllocationMeter {
+    private static final com.sun.management.ThreadMXBean BEAN;
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean found = null;
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            found = (com.sun.management.ThreadMXBean)bean;
+            if (found.isThreadAllocatedMemorySupported()) {
+                found.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                found = null;
+            }
+        }
+        BEAN = found;
+    }
+
+    private static final AtomicLong _total = new AtomicLong(0);
+
+    public static boolean isSupported() {
+        return BEAN != null;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or 0 if that is not supported.
+     */
+    public static long threadAllocatedBytes() {
+        if (BEAN == null) {
+            return 0;
+        }
+        return BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Add what the current thread allocated since start was read from threadAllocatedBytes.
+     */
+    public static void addSince(long start) {
+        if (BEAN != null) {
+            _total.addAndGet(threadAllocatedBytes() - start);
+        }
+    }
+
+    public static void reset() {
+        _total.set(0);
+    }
+
+    public static long getTotal() {
+        return _total.get();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Arrays;
+
+import com.lmax.disruptor.EventHandler;
+
+/**
+ * Lets a queue that only knows how to call onEvent feed a BatchHandler.  Events are
+ * collected until the queue says it is the end of the batch and then handed over together,
+ * which is still before the queue moves its consumer sequence past them.
+ * There is one collector per consumer thread.
+ */
+public class BatchCollector implements EventHandler<Object> {
+    private static final int MAX_BATCH = 1024;
+    private static final ThreadLocal<BatchCollector> LOCAL = new ThreadLocal<BatchCollector>() {
+        @Override
+        protected BatchCollector initialValue() {
+            return new BatchCollector();
+        }
+    };
+
+    /**
+     * @return the current thread's collector, feeding handler.
+     */
+    public static BatchCollector get(BatchHandler handler) {
+        BatchCollector ret = LOCAL.get();
+        ret._handler = handler;
+        return ret;
+    }
+
+    private Object[] _events = new Object[16];
+    private int _size = 0;
+    private BatchHandler _handler;
+
+    private BatchCollector() {
+        //Only get
+    }
+
+    @Override
+    public void onEvent(Object event, long sequence, boolean endOfBatch) throws Exception {
+        if (_size == _events.length) {
+            if (_size < MAX_BATCH) {
+                _events = Arrays.copyOf(_events, _size * 2);
+            } else {
+                flush();
+            }
+        }
+        _events[_size++] = event;
+        if (endOfBatch) {
+            flush();
+        }
+    }
+
+    private void flush() throws Exception {
+        if (_size > 0) {
+            try {
+                _handler.onBatch(_events, 0, _size);
+            } finally {
+                Arrays.fill(_events, 0, _size, null);
+                _size = 0;
+            }
+        }
+    }
+
+    /**
+     * Hand over anything left, for queues that did not mark the end of their last batch.
+     */
+    public void finish() {
+        try {
+            flush();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class BatchWordCount implements Test {
 
                 @Override
                 public void run() {
+                    long allocStart = AllocationMeter.threadAllocatedBytes();
                     try {
                         _startSignal.await();
                         GenSentences gen = _gen;
@@ -56,6 +57,7 @@ public class BatchWordCount implements Test {
                     } catch (Exception e) {
                         //Ignored
                     } finally {
+                        AllocationMeter.addSince(allocStart);
                         _doneSignal.countDown();
                     }
                 }
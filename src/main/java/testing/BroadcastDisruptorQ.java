@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Map;
+import java.util.Collection;
+
+import storm.perf.com.lmax.disruptor.AlertException;
+import storm.perf.com.lmax.disruptor.RingBuffer;
+import storm.perf.com.lmax.disruptor.Sequence;
+import storm.perf.com.lmax.disruptor.SequenceBarrier;
+import storm.perf.com.lmax.disruptor.WaitStrategy;
+import storm.perf.com.lmax.disruptor.TimeoutException;
+
+//Old Code for compatability reasons
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * A queue that delivers every event to each of a fixed number of readers, using one LMAX
+ * Disruptor ring instead of a copy per reader.  Each reader has its own sequence, and the
+ * ring is gated on all of them, so a slot is only reused once the slowest reader is past it.
+ *
+ * This object is the publishing side, reader(i) is the Q that the i'th consumer takes
+ * events from.  Events are shared between the readers, so they must not be modified or kept
+ * after onEvent returns.  Publishing through a reader goes to the same ring.
+ */
+public class BroadcastDisruptorQ implements Q, Watermarks.Gauge {
+    private static final String PREFIX = "bcast-";
+
+    private final RingBuffer<LatestDisruptorQ.MutableObject> _buffer;
+    private final Reader[] _readers;
+    private final Watermarks _watermarks = new Watermarks(this);
+    private final String _queueName;
+
+    /**
+     * One consumer's view of the ring.
+     */
+    private class Reader implements Q {
+        private final Sequence _sequence = new Sequence();
+        private final SequenceBarrier _barrier = _buffer.newBarrier();
+        private final String _readerName;
+
+        public Reader(int index) {
+            _readerName = _queueName + "-" + index;
+        }
+
+        @Override
+        public void register(BpCb cb) {
+            BroadcastDisruptorQ.this.register(cb);
+        }
+
+        @Override
+        public boolean isThrottled() {
+            return BroadcastDisruptorQ.this.isThrottled();
+        }
+
+        @Override
+        public void setWatermarks(double high, double low) {
+            BroadcastDisruptorQ.this.setWatermarks(high, low);
+        }
+
+        @Override
+        public String getName() {
+            return _readerName;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+
+        @Override
+        public void consumeBatch(EventHandler<Object> handler) {
+            consumeBatch(handler, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void consumeBatch(EventHandler<Object> handler, int max) {
+            final long next = _sequence.get() + 1;
+            final long limit = Math.min(_buffer.getCursor(), next + Math.max(max, 1) - 1);
+            consumeTo(_buffer.getHighestPublishedSequence(next, limit), handler);
+        }
+
+        @Override
+        public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+            final long next = _sequence.get() + 1;
+            long available;
+            try {
+                available = _barrier.waitFor(next);
+            } catch (TimeoutException te) {
+                available = _buffer.getHighestPublishedSequence(next, _buffer.getCursor());
+            } catch (AlertException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            consumeTo(available, handler);
+        }
+
+        private void consumeTo(long available, EventHandler<Object> handler) {
+            final long first = _sequence.get() + 1;
+            if (available >= first) {
+                //Other readers still need the slots, so unlike LatestDisruptorQ they are not cleared
+                for (long curr = first; curr <= available; curr++) {
+                    try {
+                        handler.onEvent(_buffer.get(curr).getObject(), curr, curr == available);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                _sequence.set(available);
+            }
+            _watermarks.checkLow();
+        }
+
+        @Override
+        public void publish(Object obj) {
+            BroadcastDisruptorQ.this.publish(obj);
+        }
+
+        @Override
+        public void publish(Collection<Object> objs) {
+            BroadcastDisruptorQ.this.publish(objs);
+        }
+
+        @Override
+        public void tryPublish(Object obj) throws InsufficientCapacityException {
+            BroadcastDisruptorQ.this.tryPublish(obj);
+        }
+
+        @Override
+        public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+            BroadcastDisruptorQ.this.publishEvent(translator, arg);
+        }
+
+        @Override
+        public boolean reusesSlots() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            //NOOP the ring is closed through the BroadcastDisruptorQ
+        }
+    }
+
+    public static BroadcastDisruptorQ make(String name, int numReaders, Map<String, String> conf) {
+        int size = Q.roundUpToNextPowerOfTwo(Q.getInt(conf, "Q.size", 1024));
+        long timeout = Q.getLong(conf, "Q.disruptor.timeout", 1000l);
+        String defaultWait = timeout == 0 ? WaitStrategies.BLOCKING : WaitStrategies.TIMEOUT_BLOCKING;
+        WaitStrategy wait = WaitStrategies.make(PREFIX + name, conf, defaultWait, timeout);
+        return new BroadcastDisruptorQ(name, size, numReaders, wait);
+    }
+
+    public BroadcastDisruptorQ(String queueName, int size, int numReaders, WaitStrategy wait) {
+        if (numReaders <= 0) {
+            throw new IllegalArgumentException("A broadcast queue needs at least one reader, not " + numReaders);
+        }
+        _queueName = PREFIX + queueName;
+        _buffer = RingBuffer.createMultiProducer(new LatestDisruptorQ.ObjectEventFactory(), size, wait);
+        _readers = new Reader[numReaders];
+        Sequence[] sequences = new Sequence[numReaders];
+        for (int i = 0; i < numReaders; i++) {
+            _readers[i] = new Reader(i);
+            sequences[i] = _readers[i]._sequence;
+        }
+        _buffer.addGatingSequences(sequences);
+    }
+
+    /**
+     * @return the Q the i'th consumer reads from, every reader sees every event.
+     */
+    public Q reader(int i) {
+        return _readers[i];
+    }
+
+    public int numReaders() {
+        return _readers.length;
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+        return _queueName;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private UnsupportedOperationException readThroughReaders() {
+        return new UnsupportedOperationException(_queueName + " has to be read through one of its readers");
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        throw readThroughReaders();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        throw readThroughReaders();
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        throw readThroughReaders();
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        throw readThroughReaders();
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        int size = objs.size();
+        if (size > 0) {
+            long end = _buffer.next(size);
+            long begin = end - (size - 1);
+            long at = begin;
+            for (Object obj: objs) {
+                _buffer.get(at).setObject(obj);
+                at++;
+            }
+            _buffer.publish(begin, end);
+            _watermarks.checkHigh();
+        }
+    }
+
+    @Override
+    public void publish(Object obj) {
+        final long id = _buffer.next();
+        _buffer.get(id).setObject(obj);
+        _buffer.publish(id);
+        _watermarks.checkHigh();
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        final long id;
+        try {
+            id = _buffer.tryNext(1);
+        } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException ice) {
+            throw InsufficientCapacityException.INSTANCE;
+        }
+        _buffer.get(id).setObject(obj);
+        _buffer.publish(id);
+        _watermarks.checkHigh();
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        final long id = _buffer.next();
+        _buffer.get(id).translate(translator, id, arg);
+        _buffer.publish(id);
+        _watermarks.checkHigh();
+    }
+
+    //How far behind the slowest reader is
+    public long population() {
+        return _buffer.getCursor() - _buffer.getMinimumGatingSequence();
+    }
+
+    public long capacity() {
+        return _buffer.getBufferSize();
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        //publishEvent fills in the event kept in the slot
+        return true;
+    }
+
+    @Override
+    public void close() {
+        //NOOP
+    }
+}
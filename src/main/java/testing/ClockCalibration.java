@@ -0,0 +1,77 @@
+package testing;
+
+import java.util.Arrays;
+
+/**
+ * Measures what it costs to read System.nanoTime() and how much two back to back reads can
+ * differ by, which is the error every latency measurement carries.
+ */
+public class ClockCalibration {
+    private static final int WARMUP_READS = 1000000;
+
+    private final double _costNanos;
+    private final long _granularity;
+    private final long _median;
+    private final long _p99;
+    private final long _max;
+
+    /**
+     * Read the clock reads times back to back, after warming up.
+     */
+    public static ClockCalibration measure(int reads) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_READS; i++) {
+            sink += System.nanoTime();
+        }
+        long[] deltas = new long[reads];
+        final long start = System.nanoTime();
+        long last = start;
+        for (int i = 0; i < reads; i++) {
+            long now = System.nanoTime();
+            deltas[i] = now - last;
+            last = now;
+        }
+        double cost = ((double)(last - start)) / reads;
+        Arrays.sort(deltas);
+        long granularity = 0;
+        for (long delta: deltas) {
+            if (delta > 0) {
+                granularity = delta;
+                break;
+            }
+        }
+        //Keep the warm up from being optimized away
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return new ClockCalibration(cost, granularity, deltas[reads / 2], deltas[(int)(reads * 0.99)], deltas[reads - 1]);
+    }
+
+    private ClockCalibration(double costNanos, long granularity, long median, long p99, long max) {
+        _costNanos = costNanos;
+        _granularity = granularity;
+        _median = median;
+        _p99 = p99;
+        _max = max;
+    }
+
+    /**
+     * @return the average time one read of the clock takes.
+     */
+    public double getCostNanos() {
+        return _costNanos;
+    }
+
+    /**
+     * @return the smallest step the clock was seen to move by.
+     */
+    public long getGranularity() {
+        return _granularity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("System.nanoTime() costs %.1f ns, granularity %,d ns, back to back reads 50th %,d ns 99th %,d ns max %,d ns",
+            _costNanos, _granularity, _median, _p99, _max);
+    }
+}
@@ -16,4 +16,16 @@ public class Consumer extends EventThread<TestData> {
             _lat.recordLatency(data.iteration, data.start);
         }
     }
+
+    @Override
+    public void onEvents(Object[] events, int offset, int length) {
+        final LatencyEstimation lat = _lat;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            TestData data = (TestData)events[i];
+            if (!data.allDone) {
+                lat.recordLatency(data.iteration, data.start);
+            }
+        }
+    }
 }
@@ -0,0 +1,311 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * Credit based flow control for a single link between two stages.  The link starts out with
+ * a fixed number of credits, every event published takes one, and the consumer hands the
+ * credits back once it has processed the events, or right away for events the wrapped Q
+ * dropped.  A producer that runs out of credits only waits on this link, instead of every
+ * sender being throttled because some queue somewhere crossed its high watermark.
+ *
+ * Stalls are counted per link in TestStats, as credit.NAME.stalls, credit.NAME.stall-ns and
+ * credit.NAME.redirects.
+ */
+public class CreditQ implements Q {
+    //Only a safety net, normally the consumer wakes us up
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Counts what the consumer processed so it can be granted back.  The consumer is a single
+     * thread so one of these is reused for every call.
+     */
+    private static class CountingHandler implements EventHandler<Object> {
+        private EventHandler<Object> _delegate;
+        private int _count;
+
+        @Override
+        public void onEvent(Object event, long sequence, boolean endOfBatch) throws Exception {
+            _count++;
+            _delegate.onEvent(event, sequence, endOfBatch);
+        }
+    }
+
+    private static class CountingBatchHandler implements BatchHandler {
+        private BatchHandler _delegate;
+        private int _count;
+
+        @Override
+        public void onBatch(Object[] events, int offset, int length) throws Exception {
+            _count += length;
+            _delegate.onBatch(events, offset, length);
+        }
+    }
+
+    private final Q _q;
+    private final int _maxCredits;
+    private final AtomicLong _credits;
+    private final ConcurrentLinkedQueue<Thread> _waiters = new ConcurrentLinkedQueue<Thread>();
+    private final CountingHandler _counting = new CountingHandler();
+    private final CountingBatchHandler _countingBatch = new CountingBatchHandler();
+    private final AtomicLong _stalls;
+    private final AtomicLong _stallNanos;
+    private final AtomicLong _redirects;
+
+    public static CreditQ make(Q q, Map<String, String> conf) {
+        int credits = Q.getInt(conf, "Q.credits", Q.getInt(conf, "Q.size", 1024));
+        return new CreditQ(q, credits);
+    }
+
+    public CreditQ(Q q, int credits) {
+        if (credits <= 0) {
+            throw new IllegalArgumentException("A link needs at least one credit, not " + credits);
+        }
+        _q = q;
+        _maxCredits = credits;
+        _credits = new AtomicLong(credits);
+        //Anything dropped on the way, like by a SheddingQ, never gets to the consumer to be counted
+        q.registerDropped(new DropCb() {
+            @Override
+            public void dropped(int count) {
+                grant(count);
+            }
+        });
+        String prefix = "credit." + q.getName() + ".";
+        _stalls = TestStats.counter(prefix + "stalls");
+        _stallNanos = TestStats.counter(prefix + "stall-ns");
+        _redirects = TestStats.counter(prefix + "redirects");
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _q.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _q.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _q.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+      return "CREDIT_"+_maxCredits+"_"+_q.getName();
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+
+    public long availableCredits() {
+        return _credits.get();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        _counting._delegate = handler;
+        _counting._count = 0;
+        try {
+            _q.consumeBatch(_counting);
+        } finally {
+            grant(_counting._count);
+        }
+    }
+    
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        _counting._delegate = handler;
+        _counting._count = 0;
+        try {
+            _q.consumeBatch(_counting, max);
+        } finally {
+            grant(_counting._count);
+        }
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        _counting._delegate = handler;
+        _counting._count = 0;
+        try {
+            _q.consumeBatchWhenAvailable(_counting);
+        } finally {
+            grant(_counting._count);
+        }
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        _countingBatch._delegate = handler;
+        _countingBatch._count = 0;
+        try {
+            _q.consumeSliceWhenAvailable(_countingBatch);
+        } finally {
+            grant(_countingBatch._count);
+        }
+    }
+
+    private void grant(int count) {
+        if (count > 0) {
+            _credits.addAndGet(count);
+            if (!_waiters.isEmpty()) {
+                for (Thread t: _waiters) {
+                    LockSupport.unpark(t);
+                }
+            }
+        }
+    }
+
+    //@return how many credits were taken, at most max and 0 if there were none
+    private int tryAcquire(int max) {
+        while (true) {
+            long available = _credits.get();
+            if (available <= 0) {
+                return 0;
+            }
+            int taken = (int) Math.min(available, max);
+            if (_credits.compareAndSet(available, available - taken)) {
+                return taken;
+            }
+        }
+    }
+
+    //Blocks until at least one credit, and at most max, can be taken
+    private int acquire(int max) {
+        int taken = tryAcquire(max);
+        if (taken > 0) {
+            return taken;
+        }
+        _stalls.incrementAndGet();
+        long start = System.nanoTime();
+        Thread me = Thread.currentThread();
+        _waiters.add(me);
+        try {
+            while ((taken = tryAcquire(max)) == 0) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new RuntimeException(new InterruptedException("Interrupted waiting for credits on " + getName()));
+                }
+            }
+            return taken;
+        } finally {
+            _waiters.remove(me);
+            _stallNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void publish(Object obj) {
+        acquire(1);
+        _q.publish(obj);
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        //Only ask for what we can send right away, so producers never sit on part of what they need
+        ArrayList<Object> remaining = new ArrayList<Object>(objs);
+        int sent = 0;
+        while (sent < remaining.size()) {
+            int taken = acquire(remaining.size() - sent);
+            _q.publish(remaining.subList(sent, sent + taken));
+            sent += taken;
+        }
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        acquire(1);
+        _q.publishEvent(translator, arg);
+    }
+
+    /**
+     * Publish only if this link has a credit to spare.
+     * @return false if there were no credits and nothing was published.
+     */
+    public <T, A> boolean tryPublishEvent(QTranslator<T, A> translator, A arg) {
+        if (tryAcquire(1) == 0) {
+            return false;
+        }
+        _q.publishEvent(translator, arg);
+        return true;
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        if (tryAcquire(1) == 0) {
+            throw InsufficientCapacityException.INSTANCE;
+        }
+        try {
+            _q.tryPublish(obj);
+        } catch (InsufficientCapacityException e) {
+            grant(1);
+            throw e;
+        }
+    }
+
+    /**
+     * Publish to qs[preferred] if that link has a credit, otherwise to the first of the other
+     * links that does, and only block on the preferred link when none of them do.  Only use
+     * this when any of the consumers can handle the event.  Links that are not CreditQs have
+     * no credits to check, so they are never redirected to, and if the preferred one is not a
+     * CreditQ it is just published to.
+     */
+    public static <T, A> void publishEventRedirect(List<Q> qs, int preferred, QTranslator<T, A> translator, A arg) {
+        Q first = qs.get(preferred);
+        if (first instanceof CreditQ) {
+            final int size = qs.size();
+            for (int i = 0; i < size; i++) {
+                Q q = qs.get((preferred + i) % size);
+                if (q instanceof CreditQ && ((CreditQ) q).tryPublishEvent(translator, arg)) {
+                    if (i > 0) {
+                        ((CreditQ) first)._redirects.incrementAndGet();
+                    }
+                    return;
+                }
+            }
+        }
+        first.publishEvent(translator, arg);
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        return _q.reusesSlots();
+    }
+
+    @Override
+    public void close() {
+        _q.close();
+    }
+}
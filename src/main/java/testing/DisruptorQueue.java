@@ -39,7 +39,7 @@ import java.util.concurrent.TimeUnit;
  * A single consumer queue that uses the LMAX Disruptor. They key to the performance is
  * the ability to catch up to the producer by processing tuples in batches.
  */
-public class DisruptorQueue implements Q {
+public class DisruptorQueue implements Q, Watermarks.Gauge {
     public static class MutableObject {
         private Object o = null;
     
@@ -65,6 +65,7 @@ public class DisruptorQueue implements Q {
     private RingBuffer<MutableObject> _buffer;
     private Sequence _consumer;
     private SequenceBarrier _barrier;
+    private final Watermarks _watermarks = new Watermarks(this);
     
     private static String PREFIX = "disruptor-";
     private String _queueName = "";
@@ -74,14 +75,18 @@ public class DisruptorQueue implements Q {
     public static DisruptorQueue make(String name, int size, Map<String, String> conf) {
         long timeout = Q.getLong(conf, "Q.disruptor.timeout", 1000l);
         int batch = Q.getInt(conf, "Q.disruptor.batch", 1);
+        WaitStrategy wait = WaitStrategies.makeLegacy(PREFIX + name, conf);
 
-        return new DisruptorQueue(name, size, timeout, batch);
+        return new DisruptorQueue(name, size, timeout, batch, wait);
     }
 
     public DisruptorQueue(String queueName, int size, long timeout, int batchSize) {
+        this(queueName, size, timeout, batchSize, new BlockingWaitStrategy());
+    }
+
+    public DisruptorQueue(String queueName, int size, long timeout, int batchSize, WaitStrategy wait) {
         this._queueName = PREFIX + queueName;
         ClaimStrategy claim = new MultiThreadedClaimStrategy(size);
-        WaitStrategy wait = new BlockingWaitStrategy() ;
         _batchSize = batchSize;
         _buffer = new RingBuffer<MutableObject>(new ObjectEventFactory(), claim, wait);
         _consumer = new Sequence();
@@ -92,12 +97,17 @@ public class DisruptorQueue implements Q {
 
     @Override
     public void register(BpCb cb) {
-        //Ignored
+        _watermarks.register(cb);
     }
- 
+
     @Override
     public boolean isThrottled() {
-        return false;
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
     }
 
     public String getName() {
@@ -111,6 +121,11 @@ public class DisruptorQueue implements Q {
     public void consumeBatch(EventHandler<Object> handler) {
         consumeBatchToCursor(_barrier.getCursor(), handler);
     }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        consumeBatchToCursor(Math.min(_barrier.getCursor(), _consumer.get() + Math.max(max, 1)), handler);
+    }
     
     public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
         try {
@@ -122,6 +137,8 @@ public class DisruptorQueue implements Q {
 
             if (availableSequence - origSeq > 0) {
                 consumeBatchToCursor(availableSequence, handler);
+            } else {
+                _watermarks.checkLow();
             }
         } catch (AlertException e) {
             throw new RuntimeException(e);
@@ -142,6 +159,7 @@ public class DisruptorQueue implements Q {
             }
         }
         _consumer.set(cursor);
+        _watermarks.checkLow();
     }
    
     @Override
@@ -155,6 +173,7 @@ public class DisruptorQueue implements Q {
             at++;
         }
         _buffer.publish(batchDescriptor);
+        _watermarks.checkHigh();
     }
  
     @Override
@@ -180,12 +199,14 @@ public class DisruptorQueue implements Q {
         final MutableObject m = _buffer.get(id);
         m.setObject(obj);
         _buffer.publish(id);
+        _watermarks.checkHigh();
     }
    
     public long getCursor() {
         return _buffer.getCursor();
     }
     public long  size() { return (writePos() - readPos()); }
+    public long  population() { return size(); }
     public long  capacity()   { return _buffer.getBufferSize(); }
     public long  writePos()   { return _buffer.getCursor(); }
     public long  readPos()    { return _consumer.get(); }
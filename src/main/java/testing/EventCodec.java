@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes events with a fixed layout to and from a ByteBuffer, so a queue can store
+ * them as flat records instead of as references to heap objects.
+ */
+public interface EventCodec<T> {
+    /**
+     * @return the number of bytes every record takes up.
+     */
+    public int recordSize();
+
+    /**
+     * @return true if event can be represented by this codec.
+     */
+    public boolean supports(Object event);
+
+    /**
+     * Write event into buffer starting at offset.  Only called for events this codec supports.
+     */
+    public void encode(Object event, ByteBuffer buffer, int offset);
+
+    /**
+     * @return a new reusable object for the consumer to read records through.
+     */
+    public T newFlyweight();
+
+    /**
+     * Point flyweight at the record starting at offset in buffer.
+     */
+    public void wrap(T flyweight, ByteBuffer buffer, int offset);
+}
@@ -2,19 +2,25 @@ package testing;
 
 import com.lmax.disruptor.EventHandler;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Arrays;
 
-public abstract class EventThread<T extends TestData> extends Thread implements EventHandler<Object> {
+public abstract class EventThread<T extends TestData> extends Thread implements EventHandler<Object>, BatchHandler {
     private boolean _isDone = false;
     private Q _input;
     private CountDownLatch _startSignal;
     private CountDownLatch _doneSignal;
     private int _currentSize = 0;
     private int _numDoneMessages;
+    private long _consumed = 0;
+    private IdleStrategy _idle = null;
+    private boolean _batchMode = false;
     //private PctEstimation _batchSize;
     //private PctEstimation _qSize;
     //private PctEstimation _pop;
@@ -30,13 +36,107 @@ public abstract class EventThread<T extends TestData> extends Thread implements
         //_pop = new PctEstimation(1.0, MAX_SAMPLES);
     }
 
+    /**
+     * Set up the optional behavior selected in conf, EventThread.idle (see IdleStrategy) and
+     * EventThread.batch (see setBatchMode).  Has to be called before the thread is started.
+     */
+    public void configure(Map<String, String> conf) {
+        setIdleStrategy(IdleStrategy.make(conf));
+        setBatchMode(conf.containsKey("EventThread.batch"));
+    }
+
+    /**
+     * In batch mode events are taken from the Q with consumeSliceWhenAvailable and handed to
+     * onEvents a batch at a time, instead of one onEvent call each.
+     * Has to be called before the thread is started.
+     */
+    public void setBatchMode(boolean batchMode) {
+        _batchMode = batchMode;
+    }
+
+    /**
+     * Idle with idle whenever a consume call finds nothing, and report how much of this
+     * thread's time and CPU went to waiting for work in TestStats under consumer.*.
+     * Has to be called before the thread is started, null leaves it up to the Q.
+     */
+    public void setIdleStrategy(IdleStrategy idle) {
+        _idle = idle;
+    }
+
+    private static long cpuTime(ThreadMXBean bean) {
+        return bean == null ? 0 : bean.getCurrentThreadCpuTime();
+    }
+
+    private void consumeWithIdle(Q input, IdleStrategy idle) throws Exception {
+        //Counters are looked up here, they were reset after we were created
+        AtomicLong callsCounter = TestStats.counter("consumer.calls");
+        AtomicLong emptyCounter = TestStats.counter("consumer.empty-calls");
+        AtomicLong eventsCounter = TestStats.counter("consumer.events");
+        AtomicLong idleCounter = TestStats.counter("consumer.idle-ns");
+        AtomicLong idleCpuCounter = TestStats.counter("consumer.idle-cpu-ns");
+        AtomicLong cpuCounter = TestStats.counter("consumer.cpu-ns");
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isCurrentThreadCpuTimeSupported()) {
+            bean = null;
+        }
+        long calls = 0;
+        long empty = 0;
+        long idleNanos = 0;
+        long idleCpu = 0;
+        //Time is only read at the start and end of a run of empty calls, not for every call
+        boolean idling = false;
+        long idleStart = 0;
+        long idleCpuStart = 0;
+        final long cpuStart = cpuTime(bean);
+        final boolean batchMode = _batchMode;
+        while (!_isDone) {
+            long before = _consumed;
+            if (batchMode) {
+                input.consumeSliceWhenAvailable(this);
+            } else {
+                input.consumeBatchWhenAvailable(this);
+            }
+            calls++;
+            if (_consumed == before) {
+                empty++;
+                if (!idling) {
+                    idling = true;
+                    idleStart = System.nanoTime();
+                    idleCpuStart = cpuTime(bean);
+                }
+                idle.idle();
+            } else if (idling) {
+                idling = false;
+                idleNanos += System.nanoTime() - idleStart;
+                idleCpu += cpuTime(bean) - idleCpuStart;
+                idle.reset();
+            }
+        }
+        callsCounter.addAndGet(calls);
+        emptyCounter.addAndGet(empty);
+        eventsCounter.addAndGet(_consumed);
+        idleCounter.addAndGet(idleNanos);
+        idleCpuCounter.addAndGet(idleCpu);
+        cpuCounter.addAndGet(cpuTime(bean) - cpuStart);
+    }
+
     @Override
     public void run() {
+        long allocStart = AllocationMeter.threadAllocatedBytes();
         try {
             _startSignal.await();
             Q input = _input;
-            while (!_isDone) {
-                input.consumeBatchWhenAvailable(this);
+            IdleStrategy idle = _idle;
+            if (idle != null) {
+                consumeWithIdle(input, idle);
+            } else if (_batchMode) {
+                while (!_isDone) {
+                    input.consumeSliceWhenAvailable(this);
+                }
+            } else {
+                while (!_isDone) {
+                    input.consumeBatchWhenAvailable(this);
+                }
             }
             //System.out.println(_input+" Q_SIZE "+_qSize);
             //System.out.println(_input+" POP_SIZE "+_pop);
@@ -44,6 +144,7 @@ public abstract class EventThread<T extends TestData> extends Thread implements
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            AllocationMeter.addSince(allocStart);
             _doneSignal.countDown();
             onAllDone();
         }
@@ -59,6 +160,7 @@ public abstract class EventThread<T extends TestData> extends Thread implements
             }
         }
         _currentSize++;
+        _consumed++;
 
         //_pop.recordValue(data.iteration, (double)_input.population());
         //_qSize.recordValue(data.iteration, _input.getCursor() - sequence);
@@ -70,8 +172,35 @@ public abstract class EventThread<T extends TestData> extends Thread implements
         onEvent(data);
     }
 
+    @Override
+    public void onBatch(Object[] events, int offset, int length) throws Exception {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (((T)events[i]).allDone) {
+                _numDoneMessages--;
+                if (_numDoneMessages <= 0) {
+                  _isDone = true;
+                }
+            }
+        }
+        _consumed += length;
+        onEvents(events, offset, length);
+    }
+
     public abstract void onEvent(T event) throws Exception;
 
+    /**
+     * Handle events[offset] through events[offset + length - 1] in batch mode, all of them
+     * are Ts.  Override this to work on the whole batch in one loop, by default each one is
+     * passed to onEvent.  Neither the array nor the events can be kept after this returns.
+     */
+    public void onEvents(Object[] events, int offset, int length) throws Exception {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            onEvent((T)events[i]);
+        }
+    }
+
     public void onAllDone() {
         //Empty
     }
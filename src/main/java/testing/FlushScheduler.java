@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One thread for the whole process that flushes partially filled batches once they have
+ * lingered long enough, instead of a timer thread per queue waking up every millisecond.
+ *
+ * A batcher is a Task.  It arms itself when it is holding data that nothing is going to
+ * flush, and the deadline is the time that data arrived plus its linger.  Arming is one CAS
+ * on the task and one push onto a lock free stack, and only happens once per linger period.
+ * The scheduler moves armed tasks into a hashed timing wheel, runs the ones that are due,
+ * and parks until the next non empty bucket, or indefinitely if nothing is armed.
+ */
+public class FlushScheduler extends Thread {
+    private static final long TICK_NANOS = 100000;
+    private static final int WHEEL_SIZE = 1024;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private static final int IDLE = 0;
+    private static final int ARMED = 1;
+    private static final int CANCELLED = 2;
+
+    /**
+     * Something with buffered data that needs to be flushed once it has waited long enough.
+     */
+    public static abstract class Task {
+        private static final AtomicIntegerFieldUpdater<Task> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Task.class, "_state");
+
+        private volatile int _state = IDLE;
+        private long _deadline;
+        //Links for the arming stack and the wheel bucket, a task is only ever in one of them
+        private Task _nextArmed;
+        private Task _nextInBucket;
+
+        /**
+         * Called on the scheduler thread once the deadline has passed.  The task is disarmed
+         * before this is called, so anything added while it runs will arm it again.
+         * This should not block for long, every other queue in the process is waiting on it.
+         * @return true if everything was flushed, false to be tried again on the next tick.
+         */
+        protected abstract boolean flush();
+
+        public boolean isArmed() {
+            return _state == ARMED;
+        }
+
+        /**
+         * Stop flushing this task, it cannot be armed again.
+         */
+        public void cancel() {
+            _state = CANCELLED;
+        }
+    }
+
+    private static volatile FlushScheduler _instance = null;
+
+    public static FlushScheduler get() {
+        FlushScheduler ret = _instance;
+        if (ret == null) {
+            synchronized (FlushScheduler.class) {
+                ret = _instance;
+                if (ret == null) {
+                    ret = new FlushScheduler();
+                    ret.start();
+                    _instance = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private final AtomicReference<Task> _armed = new AtomicReference<Task>();
+    //Only touched by the scheduler thread
+    private final Task[] _wheel = new Task[WHEEL_SIZE];
+    private int _scheduled = 0;
+    private long _currentTick;
+    //When the scheduler will wake up on its own, Long.MAX_VALUE if it is parked until armed
+    private volatile long _wakeAt = Long.MAX_VALUE;
+
+    private FlushScheduler() {
+        super("flush-scheduler");
+        setDaemon(true);
+    }
+
+    /**
+     * Arm task to be flushed lingerNanos from now, unless it is already armed or cancelled.
+     */
+    public void arm(Task task, long lingerNanos) {
+        armAt(task, System.nanoTime() + lingerNanos);
+    }
+
+    /**
+     * Arm task to be flushed once System.nanoTime() reaches deadline, unless it is already
+     * armed or cancelled.
+     */
+    public void armAt(Task task, long deadline) {
+        if (task._state == IDLE && Task.STATE.compareAndSet(task, IDLE, ARMED)) {
+            task._deadline = deadline;
+            Task head;
+            do {
+                head = _armed.get();
+                task._nextArmed = head;
+            } while (!_armed.compareAndSet(head, task));
+            if (deadline < _wakeAt) {
+                LockSupport.unpark(this);
+            }
+        }
+    }
+
+    private void schedule(Task task) {
+        long tick = Math.max(Math.floorDiv(task._deadline, TICK_NANOS), _currentTick + 1);
+        int bucket = (int) tick & WHEEL_MASK;
+        task._nextInBucket = _wheel[bucket];
+        _wheel[bucket] = task;
+        _scheduled++;
+    }
+
+    private void scheduleArmed() {
+        Task task = _armed.getAndSet(null);
+        while (task != null) {
+            Task next = task._nextArmed;
+            task._nextArmed = null;
+            schedule(task);
+            task = next;
+        }
+    }
+
+    private void expire(int bucket, long now) {
+        Task task = _wheel[bucket];
+        _wheel[bucket] = null;
+        while (task != null) {
+            Task next = task._nextInBucket;
+            task._nextInBucket = null;
+            _scheduled--;
+            if (task._deadline > now) {
+                //Not due yet, it is a later trip around the wheel
+                schedule(task);
+            } else if (Task.STATE.compareAndSet(task, ARMED, IDLE)) {
+                boolean done;
+                try {
+                    done = task.flush();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    done = true;
+                }
+                if (!done) {
+                    arm(task, TICK_NANOS);
+                }
+            }
+            //Otherwise it was cancelled so just drop it
+            task = next;
+        }
+    }
+
+    //@return the tick of the first bucket with anything in it, or -1 if there are none
+    private long nextScheduledTick() {
+        if (_scheduled == 0) {
+            return -1;
+        }
+        for (long tick = _currentTick + 1; tick <= _currentTick + WHEEL_SIZE; tick++) {
+            if (_wheel[(int) tick & WHEEL_MASK] != null) {
+                return tick;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void run() {
+        _currentTick = Math.floorDiv(System.nanoTime(), TICK_NANOS);
+        while (true) {
+            scheduleArmed();
+            long now = System.nanoTime();
+            long nowTick = Math.floorDiv(now, TICK_NANOS);
+            //If we slept through more than a full turn of the wheel every bucket is due
+            _currentTick = Math.max(_currentTick, nowTick - WHEEL_SIZE);
+            while (_currentTick < nowTick) {
+                _currentTick++;
+                expire((int) _currentTick & WHEEL_MASK, now);
+            }
+            scheduleArmed();
+
+            long nextTick = nextScheduledTick();
+            if (nextTick < 0) {
+                _wakeAt = Long.MAX_VALUE;
+                if (_armed.get() == null) {
+                    LockSupport.park(this);
+                }
+                //Nothing was waiting on the wheel so skip straight to now
+                _currentTick = Math.floorDiv(System.nanoTime(), TICK_NANOS);
+            } else {
+                long wakeAt = nextTick * TICK_NANOS;
+                _wakeAt = wakeAt;
+                if (_armed.get() == null) {
+                    LockSupport.parkNanos(this, wakeAt - System.nanoTime());
+                }
+            }
+            _wakeAt = Long.MIN_VALUE;
+        }
+    }
+}
@@ -4,9 +4,20 @@ import org.HdrHistogram.*;
 
 public class HdrLatencyEstimationImpl implements LatencyEstimation {
     private Histogram _histo;
+    private long _expectedInterval;
 
     public HdrLatencyEstimationImpl() {
+        this(0);
+    }
+
+    /**
+     * @param expectedIntervalNanos how often events are expected to be recorded, if this is
+     * more than 0 HdrHistogram back fills the values a stall kept from being recorded.  Do not
+     * combine it with OpenLoopLatencyEstimation, which already charges stalls to every event.
+     */
+    public HdrLatencyEstimationImpl(long expectedIntervalNanos) {
         _histo = new Histogram(3600000000000L, 3);
+        _expectedInterval = expectedIntervalNanos;
     }
 
     public long getStart(int iteration) {
@@ -24,7 +35,11 @@ public class HdrLatencyEstimationImpl implements LatencyEstimation {
             System.out.println("TIME > MAX "+end+" "+start);
             time = 3600000000000L;
         }
-        _histo.recordValue(time);
+        if (_expectedInterval > 0) {
+            _histo.recordValueWithExpectedInterval(time, _expectedInterval);
+        } else {
+            _histo.recordValue(time);
+        }
     }
 
     public synchronized double getPct(double pct) {
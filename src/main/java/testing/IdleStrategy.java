@@ -0,0 +1,105 @@
+package testing;
+
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What an EventThread does when a consume call comes back without any events, so idle
+ * behavior does not depend on how each Q happens to wait.  Selected with -D EventThread.idle:
+ * <ul>
+ * <li>spin, go straight back to the queue, which is what happens without an idle strategy.</li>
+ * <li>yield, Thread.yield() between empty polls.</li>
+ * <li>backoff, spin EventThread.idle.spins (default 100) times, yield EventThread.idle.yields
+ * (default 10) times, then park starting at EventThread.idle.min-park-ns (default 1000) and
+ * doubling up to EventThread.idle.max-park-ns (default 1000000).</li>
+ * </ul>
+ * Each consumer thread needs its own instance.
+ */
+public abstract class IdleStrategy {
+    /**
+     * Called after a consume call that found nothing.
+     */
+    public abstract void idle() throws InterruptedException;
+
+    /**
+     * Called once work shows up again after one or more calls to idle.
+     */
+    public void reset() {
+        //Empty
+    }
+
+    public static class Spin extends IdleStrategy {
+        @Override
+        public void idle() {
+            //Empty
+        }
+    }
+
+    public static class Yield extends IdleStrategy {
+        @Override
+        public void idle() {
+            Thread.yield();
+        }
+    }
+
+    public static class Backoff extends IdleStrategy {
+        private final long _maxSpins;
+        private final long _maxYields;
+        private final long _minParkNanos;
+        private final long _maxParkNanos;
+        private long _spins = 0;
+        private long _yields = 0;
+        private long _parkNanos;
+
+        public Backoff(long maxSpins, long maxYields, long minParkNanos, long maxParkNanos) {
+            _maxSpins = maxSpins;
+            _maxYields = maxYields;
+            _minParkNanos = Math.max(minParkNanos, 1);
+            _maxParkNanos = Math.max(maxParkNanos, _minParkNanos);
+            _parkNanos = _minParkNanos;
+        }
+
+        @Override
+        public void idle() throws InterruptedException {
+            if (_spins < _maxSpins) {
+                _spins++;
+            } else if (_yields < _maxYields) {
+                _yields++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, _parkNanos);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                _parkNanos = Math.min(_parkNanos * 2, _maxParkNanos);
+            }
+        }
+
+        @Override
+        public void reset() {
+            _spins = 0;
+            _yields = 0;
+            _parkNanos = _minParkNanos;
+        }
+    }
+
+    /**
+     * @return a new idle strategy as configured by EventThread.idle, or null if it is not set.
+     */
+    public static IdleStrategy make(Map<String, String> conf) {
+        String type = conf.get("EventThread.idle");
+        if (type == null) {
+            return null;
+        } else if ("spin".equalsIgnoreCase(type)) {
+            return new Spin();
+        } else if ("yield".equalsIgnoreCase(type)) {
+            return new Yield();
+        } else if ("backoff".equalsIgnoreCase(type)) {
+            return new Backoff(Q.getLong(conf, "EventThread.idle.spins", 100),
+                               Q.getLong(conf, "EventThread.idle.yields", 10),
+                               Q.getLong(conf, "EventThread.idle.min-park-ns", 1000),
+                               Q.getLong(conf, "EventThread.idle.max-park-ns", 1000000));
+        }
+        throw new IllegalArgumentException(type + " is not a supported idle strategy [\"spin\", \"yield\", \"backoff\"]");
+    }
+}
@@ -20,44 +20,174 @@ package testing;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.InsufficientCapacityException;
 
 import java.util.concurrent.BlockingQueue;
 
+/**
+ * Batches up events published by each thread before handing them to the wrapped Q.
+ * A batch is flushed when it reaches its size target, or once its first event has waited
+ * the max linger time, whichever comes first, so the linger is a bound on the latency batching adds.
+ * A full batch is published by the producer and blocks like any other publish, a lingering one
+ * is published by the FlushScheduler, which never blocks and tries again on the next tick if
+ * the wrapped Q is full or the producer is busy with the batch.
+ *
+ * In adaptive mode the size target follows the rate each thread is publishing at, an EWMA of
+ * the events seen between flushes, aiming for the number of events that arrive in one linger
+ * period.  Q.batch-size is then only an upper bound.  A slow producer gets a target of 1, which
+ * skips the batching entirely.
+ */
 public class InputBatchingQ implements Q {
+    private static final double RATE_ALPHA = 0.2;
+
+    /**
+     * A single thread's batch, the FlushScheduler flushes it once it has lingered too long.
+     */
+    private class Batch extends FlushScheduler.Task {
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final ArrayList<Object> _events = new ArrayList<Object>();
+        //When the first event in _events arrived
+        private long _firstArrival = 0;
+        private long _lastFlush = System.nanoTime();
+        //Events per ns, negative until the first flush
+        private double _rate = -1.0;
+        private int _target = _batchSize;
+
+        //Should only be called with _lock held
+        private void add(Object obj) {
+            if (_events.isEmpty()) {
+                _firstArrival = System.nanoTime();
+            }
+            _events.add(obj);
+        }
+
+        //Should only be called with _lock held
+        private void addAll(Collection<Object> objs) {
+            if (_events.isEmpty()) {
+                _firstArrival = System.nanoTime();
+            }
+            _events.addAll(objs);
+        }
+
+        //Should only be called with _lock held
+        private void flushIfNeeded() {
+            if (_events.size() >= _target) {
+                flushEvents();
+            } else if (!_events.isEmpty() && !isArmed()) {
+                _scheduler.armAt(this, _firstArrival + _lingerNanos);
+            }
+        }
+
+        //Should only be called with _lock held
+        private void flushEvents() {
+            int count = _events.size();
+            if (count > 0) {
+                _q.publish(_events);
+                _events.clear();
+                if (_adaptive) {
+                    adapt(count);
+                }
+            }
+        }
+
+        //Should only be called with _lock held
+        //@return true if everything was published, what was not is left in _events in order
+        private boolean tryFlushEvents() {
+            int count = _events.size();
+            if (trySend(_events)) {
+                if (_adaptive && count > 0) {
+                    adapt(count);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private void adapt(int count) {
+            long now = System.nanoTime();
+            double sample = ((double) count) / Math.max(now - _lastFlush, 1);
+            _lastFlush = now;
+            if (_rate < 0) {
+                _rate = sample;
+            } else {
+                _rate += RATE_ALPHA * (sample - _rate);
+            }
+            _target = (int) Math.max(1, Math.min(_batchSize, _rate * _lingerNanos));
+        }
+
+        @Override
+        protected boolean flush() {
+            //This runs on the scheduler thread that every batched Q shares, so it must not wait
+            //on a producer that is blocked publishing, or on a full Q
+            if (!_lock.tryLock()) {
+                return false;
+            }
+            try {
+                if (!_events.isEmpty()) {
+                    long deadline = _firstArrival + _lingerNanos;
+                    if (System.nanoTime() < deadline) {
+                        //Armed for an older batch that was flushed because it filled up
+                        _scheduler.armAt(this, deadline);
+                    } else {
+                        return tryFlushEvents();
+                    }
+                }
+                return true;
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
     private final Q _q;
     private final int _batchSize;
-    private final ConcurrentHashMap<Long, ArrayList<Object>> _batches = new ConcurrentHashMap<Long, ArrayList<Object>>();
-    private final Timer _timer = new Timer(true);
+    private final long _lingerNanos;
+    private final boolean _adaptive;
+    private final FlushScheduler _scheduler = FlushScheduler.get();
+    private final ConcurrentHashMap<Long, Batch> _batches = new ConcurrentHashMap<Long, Batch>();
+
+    public static Q make(Q q, int batchSize, Map<String, String> conf) {
+        //Q.batch-linger-ms was the original, coarser, setting and is still honored
+        long lingerMs = Q.getLong(conf, "Q.batch-linger-ms", 1);
+        long lingerUs = Q.getLong(conf, "Q.batch-linger-us", TimeUnit.MILLISECONDS.toMicros(lingerMs));
+        boolean adaptive = conf.containsKey("Q.batch-adaptive");
+        return new InputBatchingQ(q, batchSize, lingerUs, adaptive);
+    }
     
     public InputBatchingQ(Q q, int batchSize) {
+        this(q, batchSize, 1000, false);
+    }
+
+    public InputBatchingQ(Q q, int batchSize, long lingerUs, boolean adaptive) {
         _q = q;
         _batchSize = batchSize;
-        _timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                for (ArrayList<Object> batch : _batches.values()) {
-                    synchronized(batch) {
-                        flushBatch(batch);
-                    }
-                }
-            }
-        }, 1, 1);
+        _lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(lingerUs, 1));
+        _adaptive = adaptive;
     }
 
     @Override
     public void register(BpCb cb) {
-        //Ignored
+        _q.register(cb);
+    }
+
+    @Override
+    public void registerDropped(DropCb cb) {
+        _q.registerDropped(cb);
     }
  
     @Override
     public boolean isThrottled() {
-        return false;
+        return _q.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _q.setWatermarks(high, low);
     }
 
     @Override
@@ -75,63 +205,102 @@ public class InputBatchingQ implements Q {
         _q.consumeBatch(handler);
     }
     
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        _q.consumeBatch(handler, max);
+    }
+
     @Override
     public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
         _q.consumeBatchWhenAvailable(handler);
     }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        _q.consumeSliceWhenAvailable(handler);
+    }
     
     private static Long getId() {
         return Thread.currentThread().getId();
     }
 
-    //Should only be called with a lock held on batch
-    public void flushBatch(ArrayList<Object> batch) {
-        _q.publish(batch);
-        batch.clear();
-    }
-
-    @Override
-    public void publish(Object obj) {
+    private Batch getBatch() {
         Long id = getId();
-        ArrayList<Object> batch = _batches.get(id);
+        Batch batch = _batches.get(id);
         if (batch == null) {
-            batch = new ArrayList<Object>();
+            batch = new Batch();
             _batches.put(id, batch);
         }
-        synchronized (batch) {
-            batch.add(obj);
-            if (batch.size() >= _batchSize) {
-                flushBatch(batch);
+        return batch;
+    }
+
+    //Publish as much of events as fits without blocking, and remove what was published
+    //@return true if all of them were published
+    private boolean trySend(ArrayList<Object> events) {
+        int sent = 0;
+        try {
+            while (sent < events.size()) {
+                _q.tryPublish(events.get(sent));
+                sent++;
             }
+        } catch (InsufficientCapacityException e) {
+            return false;
+        } finally {
+            events.subList(0, sent).clear();
+        }
+        return true;
+    }
+
+    @Override
+    public void publish(Object obj) {
+        Batch batch = getBatch();
+        batch._lock.lock();
+        try {
+            batch.add(obj);
+            batch.flushIfNeeded();
+        } finally {
+            batch._lock.unlock();
         }
     }
    
     @Override
     public void publish(Collection<Object> objs) {
-        Long id = getId();
-        ArrayList<Object> batch = _batches.get(id);
-        if (batch == null) {
-            batch = new ArrayList<Object>();
-            _batches.put(id, batch);
-        }
-        synchronized (batch) {
+        Batch batch = getBatch();
+        batch._lock.lock();
+        try {
             batch.addAll(objs);
-            if (batch.size() >= _batchSize) {
-                flushBatch(batch);
-            }
+            batch.flushIfNeeded();
+        } finally {
+            batch._lock.unlock();
         }
     }
  
  
     @Override
     public void tryPublish(Object obj) throws InsufficientCapacityException {
-        //TODO figure this out, right now this allows for out of order delivery
-        _q.tryPublish(obj);
+        Batch batch = getBatch();
+        batch._lock.lock();
+        try {
+            //Anything already batched has to go first, and only as much of it as fits
+            if (!trySend(batch._events)) {
+                throw InsufficientCapacityException.INSTANCE;
+            }
+            _q.tryPublish(obj);
+        } finally {
+            batch._lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        return _q.reusesSlots();
     }
 
     @Override
     public void close() {
-        _timer.cancel();
+        for (Batch batch: _batches.values()) {
+            batch.cancel();
+        }
         _q.close();
     }
 }
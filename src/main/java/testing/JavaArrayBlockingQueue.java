@@ -23,10 +23,10 @@ import java.util.concurrent.ArrayBlockingQueue;
 
 public class JavaArrayBlockingQueue extends JavaBlockingQueue {
     public static JavaArrayBlockingQueue make(String name, int size, Map<String, String> conf) {
-        return new JavaArrayBlockingQueue(name, size);
+        return new JavaArrayBlockingQueue(name, size, getMaxBatch(conf, size), getTimeout(conf));
     }
 
-    public JavaArrayBlockingQueue(String queueName, int size) {
-        super(queueName, new ArrayBlockingQueue(size));
+    public JavaArrayBlockingQueue(String queueName, int size, int maxBatch, long timeout) {
+        super(queueName, new ArrayBlockingQueue<Object>(size), maxBatch, timeout);
     }
 }
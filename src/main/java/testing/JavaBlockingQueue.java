@@ -24,26 +24,70 @@ import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.InsufficientCapacityException;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
 import java.util.Collection;
 
-public class JavaBlockingQueue implements Q {
-    private BlockingQueue _q;
+/**
+ * Adapts a java BlockingQueue to Q.  The consumer drains up to maxBatch events at a time into
+ * a reusable buffer so it sees real batches, and when the queue is empty it waits up to
+ * timeout ms in poll instead of spinning.  A timeout of 0 never blocks.
+ *
+ * Q.java.mode picks the defaults.  single, the default, takes one event at a time and never
+ * waits, the way these queues have always been measured.  batch drains up to the whole queue
+ * (Q.java.max-batch) and waits up to Q.java.timeout ms (default 1000) when it is empty.
+ */
+public class JavaBlockingQueue implements Q, Watermarks.Gauge {
+    private BlockingQueue<Object> _q;
     private String _name;
     private volatile long _seq = 0;
-    
-    public JavaBlockingQueue(String queueName, BlockingQueue q) {
+    private final int _maxBatch;
+    private final long _timeout;
+    private final ArrayList<Object> _drained;
+    private final long _capacity;
+    private final Watermarks _watermarks = new Watermarks(this);
+
+    private static boolean isBatchMode(Map<String, String> conf) {
+        String mode = conf.get("Q.java.mode");
+        if (mode == null || "single".equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if ("batch".equalsIgnoreCase(mode)) {
+            return true;
+        }
+        throw new IllegalArgumentException(mode + " is not a supported Q.java.mode [\"single\", \"batch\"]");
+    }
+
+    public static int getMaxBatch(Map<String, String> conf, int size) {
+        return Math.max(1, Q.getInt(conf, "Q.java.max-batch", isBatchMode(conf) ? size : 1));
+    }
+
+    public static long getTimeout(Map<String, String> conf) {
+        return Q.getLong(conf, "Q.java.timeout", isBatchMode(conf) ? 1000l : 0l);
+    }
+
+    public JavaBlockingQueue(String queueName, BlockingQueue<Object> q, int maxBatch, long timeout) {
         _q = q;
         _name = "JAVA_ARRAY_"+queueName;
+        _maxBatch = maxBatch;
+        _timeout = timeout;
+        _drained = new ArrayList<Object>(maxBatch);
+        _capacity = q.remainingCapacity();
     }
 
     @Override
     public void register(BpCb cb) {
-        //Ignored
+        _watermarks.register(cb);
     }
 
     @Override
     public boolean isThrottled() {
-        return false;
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
     }
 
     @Override
@@ -58,31 +102,60 @@ public class JavaBlockingQueue implements Q {
     
     @Override
     public void consumeBatch(EventHandler<Object> handler) {
-        try {
-            Object o = _q.take();
-            handler.onEvent(o, _seq++, true);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        _q.drainTo(_drained, _maxBatch);
+        consumeDrained(handler);
     }
     
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        _q.drainTo(_drained, Math.min(max, _maxBatch));
+        consumeDrained(handler);
+    }
+
     @Override
     public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
-        Object o = _q.poll();
-        if (o != null) {
+        _q.drainTo(_drained, _maxBatch);
+        if (_drained.isEmpty() && _timeout > 0) {
             try {
-                handler.onEvent(o, _seq++, true);
-            } catch (Exception e) {
+                Object o = _q.poll(_timeout, TimeUnit.MILLISECONDS);
+                if (o == null) {
+                    _watermarks.checkLow();
+                    return;
+                }
+                _drained.add(o);
+                _q.drainTo(_drained, _maxBatch - 1);
+            } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
+        consumeDrained(handler);
+    }
+
+    private void consumeDrained(EventHandler<Object> handler) {
+        final ArrayList<Object> drained = _drained;
+        final int size = drained.size();
+        try {
+            for (int i = 0; i < size; i++) {
+                handler.onEvent(drained.get(i), _seq++, i == size - 1);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            drained.clear();
+        }
+        _watermarks.checkLow();
     }
 
     @Override
     public void publish(Collection<Object> objs) {
-        for (Object obj: objs) {
-            publish(obj);
+        try {
+            for (Object obj: objs) {
+                _q.put(obj);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
+        _watermarks.checkHigh();
     }
     
     @Override
@@ -92,6 +165,7 @@ public class JavaBlockingQueue implements Q {
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        _watermarks.checkHigh();
     }
     
     @Override
@@ -99,6 +173,15 @@ public class JavaBlockingQueue implements Q {
         if (!_q.offer(obj)) {
             throw InsufficientCapacityException.INSTANCE;
         }
+        _watermarks.checkHigh();
+    }
+
+    public long population() {
+        return _q.size();
+    }
+
+    public long capacity() {
+        return _capacity;
     }
 
     @Override
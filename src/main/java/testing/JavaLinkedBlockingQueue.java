@@ -23,10 +23,10 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 public class JavaLinkedBlockingQueue extends JavaBlockingQueue {
     public static JavaLinkedBlockingQueue make(String name, int size, Map<String, String> conf) {
-        return new JavaLinkedBlockingQueue(name, size);
+        return new JavaLinkedBlockingQueue(name, size, getMaxBatch(conf, size), getTimeout(conf));
     }
 
-    public JavaLinkedBlockingQueue(String queueName, int size) {
-        super(queueName, new LinkedBlockingQueue(size));
+    public JavaLinkedBlockingQueue(String queueName, int size, int maxBatch, long timeout) {
+        super(queueName, new LinkedBlockingQueue<Object>(size), maxBatch, timeout);
     }
 }
@@ -0,0 +1,86 @@
+package testing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Does nothing but record latencies from several threads at once, so the throughput is the
+ * cost of the LatencyEstimation itself.  Run it with each of the latency options, and with
+ * none for the baseline, to see how much the instrument slows down what it measures.
+ */
+public class LatencyObserver implements Test {
+    private ArrayList<Thread> _threads;
+    private CountDownLatch _doneSignal;
+    private CountDownLatch _startSignal;
+    private LatencyEstimation _lat;
+    private int _numThreads;
+
+    private class Recorder extends Thread {
+        private final int _first;
+        private final int _end;
+
+        public Recorder(int first, int end) {
+            _first = first;
+            _end = end;
+        }
+
+        @Override
+        public void run() {
+            long allocStart = AllocationMeter.threadAllocatedBytes();
+            try {
+                _startSignal.await();
+                LatencyEstimation lat = _lat;
+                for (int i = _first; i < _end; i++) {
+                    lat.recordLatency(i, lat.getStart(i));
+                }
+            } catch (InterruptedException e) {
+                //Done
+            } finally {
+                AllocationMeter.addSince(allocStart);
+                _doneSignal.countDown();
+            }
+        }
+    }
+
+    public LatencyObserver(int threads) {
+        _numThreads = threads;
+    }
+
+    @Override
+    public String description() {
+        return "Records latencies from "+_numThreads+" threads and does nothing else.";
+    }
+
+    @Override
+    public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
+        _lat = lat;
+        _doneSignal = new CountDownLatch(_numThreads);
+        _startSignal = new CountDownLatch(1);
+        _threads = new ArrayList<Thread>(_numThreads);
+        //Each thread gets its own range of iterations, so sampling sees every one once
+        int perThread = iterations / _numThreads + 1;
+        for (int i = 0; i < _numThreads; i++) {
+            int first = Math.min(i * perThread, iterations);
+            Recorder r = new Recorder(first, Math.min(first + perThread, iterations));
+            _threads.add(r);
+            r.start();
+        }
+    }
+
+    @Override
+    public void runTest(int iterations) throws Exception {
+        _startSignal.countDown();
+        _doneSignal.await();
+    }
+
+    @Override
+    public void cleanup() throws Exception {
+        for (Thread t: _threads) {
+            if (t.isAlive()) {
+                t.interrupt();
+                t.join();
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package testing;
 
 import java.util.Map;
 import java.util.Collection;
+import java.util.Collections;
 
 import storm.perf.com.lmax.disruptor.AlertException;
 import storm.perf.com.lmax.disruptor.EventFactory;
@@ -26,24 +27,23 @@ import storm.perf.com.lmax.disruptor.RingBuffer;
 import storm.perf.com.lmax.disruptor.Sequence;
 import storm.perf.com.lmax.disruptor.SequenceBarrier;
 import storm.perf.com.lmax.disruptor.WaitStrategy;
-import storm.perf.com.lmax.disruptor.BlockingWaitStrategy;
-import storm.perf.com.lmax.disruptor.LiteBlockingWaitStrategy;
-import storm.perf.com.lmax.disruptor.TimeoutBlockingWaitStrategy;
 import storm.perf.com.lmax.disruptor.TimeoutException;
 
 //Old Code for compatability reasons
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.InsufficientCapacityException;
 
-import java.util.concurrent.TimeUnit;
 
 /**
  * A single consumer queue that uses the LMAX Disruptor. They key to the performance is
  * the ability to catch up to the producer by processing tuples in batches.
  */
-public class LatestDisruptorQ implements Q {
+public class LatestDisruptorQ implements Q, Watermarks.Gauge {
     public static class MutableObject {
         private Object o = null;
+        //Reusable event owned by this slot, filled in by _owner
+        private Object _slotEvent = null;
+        private QTranslator _owner = null;
     
         public MutableObject() {
         
@@ -60,6 +60,16 @@ public class LatestDisruptorQ implements Q {
         public Object getObject() {
             return o;
         }
+
+        public <T, A> void translate(QTranslator<T, A> translator, long sequence, A arg) {
+            if (_owner != translator) {
+                _slotEvent = translator.newInstance();
+                _owner = translator;
+            }
+            T event = (T)_slotEvent;
+            translator.translateTo(event, sequence, arg);
+            this.o = event;
+        }
     }
 
     private final int _batchSize;
@@ -67,6 +77,7 @@ public class LatestDisruptorQ implements Q {
     private RingBuffer<MutableObject> _buffer;
     private Sequence _consumer;
     private SequenceBarrier _barrier;
+    private final Watermarks _watermarks = new Watermarks(this);
     
     private static String PREFIX = "disruptor-";
     private String _queueName = "";
@@ -77,18 +88,24 @@ public class LatestDisruptorQ implements Q {
         long timeout = Q.getLong(conf, "Q.disruptor.timeout", 1000l);
         boolean useLite = conf.containsKey("Q.disruptor.lite-blocking");
         int batch = Q.getInt(conf, "Q.disruptor.batch", 1);
+        WaitStrategy wait = WaitStrategies.make(PREFIX + name, conf, defaultWait(timeout, useLite), timeout);
 
-        return new LatestDisruptorQ(name, size, timeout, batch, useLite);
+        return new LatestDisruptorQ(name, size, timeout, batch, wait);
     }
 
-    public LatestDisruptorQ(String queueName, int size, long timeout, int batchSize, boolean useLite) {
-        this._queueName = PREFIX + queueName;
-        WaitStrategy wait = null;
+    private static String defaultWait(long timeout, boolean useLite) {
         if (timeout == 0) {
-            wait = useLite ? new LiteBlockingWaitStrategy() : new BlockingWaitStrategy();
-        } else {
-            wait = new TimeoutBlockingWaitStrategy(timeout, TimeUnit.MILLISECONDS);
+            return useLite ? WaitStrategies.LITE_BLOCKING : WaitStrategies.BLOCKING;
         }
+        return WaitStrategies.TIMEOUT_BLOCKING;
+    }
+
+    public LatestDisruptorQ(String queueName, int size, long timeout, int batchSize, boolean useLite) {
+        this(queueName, size, timeout, batchSize, WaitStrategies.make(defaultWait(timeout, useLite), timeout, Collections.<String, String>emptyMap()));
+    }
+
+    public LatestDisruptorQ(String queueName, int size, long timeout, int batchSize, WaitStrategy wait) {
+        this._queueName = PREFIX + queueName;
         _batchSize = batchSize;
         _buffer = RingBuffer.createMultiProducer(new ObjectEventFactory(), size, wait);
         _consumer = new Sequence();
@@ -97,16 +114,21 @@ public class LatestDisruptorQ implements Q {
         _waitTimeout = timeout;
     }
 
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
+    }
+
     @Override
     public boolean isThrottled() {
-        return false;
+        return _watermarks.isThrottled();
     }
 
     @Override
-    public void register(BpCb cb) {
-        //Ignored
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
     }
- 
+
     public String getName() {
       return _queueName;
     }
@@ -117,7 +139,16 @@ public class LatestDisruptorQ implements Q {
    
     @Override 
     public void consumeBatch(EventHandler<Object> handler) {
-        consumeBatchToCursor(_barrier.getCursor(), handler);
+        consumeBatch(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        //With more than one producer the cursor is the last slot claimed, not the last one
+        //published, so only go as far as the slots that have actually been filled in
+        final long next = _consumer.get() + 1;
+        final long limit = Math.min(_barrier.getCursor(), next + Math.max(max, 1) - 1);
+        consumeBatchToCursor(_buffer.getHighestPublishedSequence(next, limit), handler);
     }
     
     @Override
@@ -133,6 +164,8 @@ public class LatestDisruptorQ implements Q {
             }
             if (availableSequence - origSeq > 0) {
                 consumeBatchToCursor(availableSequence, handler);
+            } else {
+                _watermarks.checkLow();
             }
         } catch (AlertException e) {
             throw new RuntimeException(e);
@@ -153,6 +186,7 @@ public class LatestDisruptorQ implements Q {
             }
         }
         _consumer.set(cursor);
+        _watermarks.checkLow();
     }
 
     @Override
@@ -168,6 +202,7 @@ public class LatestDisruptorQ implements Q {
                 at++;
             }
             _buffer.publish(begin, end);
+            _watermarks.checkHigh();
         }
     }
 
@@ -182,6 +217,14 @@ public class LatestDisruptorQ implements Q {
     public void tryPublish(Object obj) throws InsufficientCapacityException {
         publish(obj, false);
     }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        final long id = _buffer.next();
+        _buffer.get(id).translate(translator, id, arg);
+        _buffer.publish(id);
+        _watermarks.checkHigh();
+    }
     
     public void publish(Object obj, boolean block) throws InsufficientCapacityException {
         try {
@@ -194,6 +237,7 @@ public class LatestDisruptorQ implements Q {
         final MutableObject m = _buffer.get(id);
         m.setObject(obj);
         _buffer.publish(id);
+        _watermarks.checkHigh();
         } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException ice) {
             throw InsufficientCapacityException.INSTANCE;
         }
@@ -203,6 +247,7 @@ public class LatestDisruptorQ implements Q {
         return _buffer.getCursor();
     }
     public long  size() { return (writePos() - readPos()); }
+    public long  population() { return size(); }
     public long  capacity()   { return _buffer.getBufferSize(); }
     public long  writePos()   { return _buffer.getCursor(); }
     public long  readPos()    { return _consumer.get(); }
@@ -215,6 +260,12 @@ public class LatestDisruptorQ implements Q {
         }        
     }
 
+    @Override
+    public boolean reusesSlots() {
+        //publishEvent fills in the event kept in the slot
+        return true;
+    }
+
     @Override
     public void close() {
         //NOOP
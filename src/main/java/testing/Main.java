@@ -14,6 +14,7 @@ import java.util.Collections;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -25,6 +26,210 @@ import org.apache.commons.cli.Options;
 public class Main {
     private static final int NUM_CORES = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * What one run of a test measured.
+     */
+    private static class RunResult {
+        private final double _throughput;
+        private final LatencyEstimation _latency;
+
+        public RunResult(double throughput, LatencyEstimation latency) {
+            _throughput = throughput;
+            _latency = latency;
+        }
+    }
+
+    /**
+     * Runs a test once with everything selected on the command line and prints its row.
+     */
+    private static class Runner {
+        private final Map<String, String> _conf;
+        private final boolean _trackLatency;
+        private final boolean _trackHdrLatency;
+        private final boolean _trackThreadLocalHdrLatency;
+        private final boolean _trackSketchLatency;
+        private final boolean _trackAlloc;
+        private final boolean _trackDrops;
+        private final double _sketchAccuracy;
+        private final double _stampPct;
+        private final long _expectedInterval;
+        private final Sigar _sigar = new Sigar();
+        private final long _pid;
+        private final List<GarbageCollectorMXBean> _gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        private final CompilationMXBean _comp = ManagementFactory.getCompilationMXBean();
+        private final boolean _compSupported;
+
+        public Runner(Map<String, String> conf, boolean trackLatency, boolean trackHdrLatency, boolean trackThreadLocalHdrLatency,
+                      boolean trackSketchLatency, boolean trackAlloc, long expectedInterval) throws Exception {
+            _conf = conf;
+            _trackLatency = trackLatency;
+            _trackHdrLatency = trackHdrLatency;
+            _trackThreadLocalHdrLatency = trackThreadLocalHdrLatency;
+            _trackSketchLatency = trackSketchLatency;
+            _trackAlloc = trackAlloc;
+            //Load shedding is on, so show what it cost next to the latency
+            _trackDrops = conf.containsKey("Q.shed");
+            _sketchAccuracy = Q.getDouble(conf, "latency.sketch.accuracy", 0.01);
+            //Only stamp this fraction of the events, -l already samples on its own
+            _stampPct = Q.getDouble(conf, "latency.sample", 1.0);
+            _expectedInterval = expectedInterval;
+            _pid = _sigar.getPid();
+            _compSupported = _comp != null && _comp.isCompilationTimeMonitoringSupported();
+        }
+
+        private LatencyEstimation newLatency(int iterations, double rate) {
+            LatencyEstimation latency;
+            if (_trackLatency) {
+                if (_trackSketchLatency) {
+                    latency = new SketchLatencyEstimationImpl(_sketchAccuracy);
+                } else if (_trackThreadLocalHdrLatency) {
+                    latency = new ThreadLocalHdrLatencyEstimationImpl(_expectedInterval);
+                } else if (_trackHdrLatency) {
+                    latency = new HdrLatencyEstimationImpl(_expectedInterval);
+                } else {
+                    int sampleGoal = Math.min(100000, iterations);
+                    double pct = ((double)sampleGoal)/iterations;
+                    latency = new LatencyEstimationImpl(pct, iterations);
+                }
+                if (_stampPct < 1.0 && !(latency instanceof LatencyEstimationImpl)) {
+                    latency = new SampledLatencyEstimation(latency, _stampPct);
+                }
+            } else {
+                latency = new NoopLatencyEstimation();
+            }
+            if (rate > 0) {
+                latency = new OpenLoopLatencyEstimation(latency, rate);
+            }
+            return latency;
+        }
+
+        public void printHeader() {
+            System.out.printf("%20s\t%5s\t%15s\t%17s\t%17s\t%4s\t%5s\t%8s\t%8s","Test Name", "Num", "Iterations", "Time ns", "Throughput", "GC", "GC ms", "USR ms", "SYS ms");
+            if (_compSupported) {
+                System.out.printf("\t%6s", "JIT ms");
+            }
+            if (_trackAlloc) {
+                System.out.printf("\t%9s", "B/event");
+            }
+            if (_trackLatency) {
+                System.out.printf("\t%15s\t%15s\t%15s\t%15s\t%15s", "min latency", "latency 50th", "latency 90th", "latency 99th", "max latency");
+            }
+            if (_trackDrops) {
+                System.out.printf("\t%12s", "dropped");
+            }
+            System.out.println();
+        }
+
+        /**
+         * @param rate events per second to send open loop, 0 to send as fast as possible.
+         */
+        public RunResult run(String testName, int num, Test test, int iterations, double rate) throws Exception {
+            TestStats.reset();
+            LatencyEstimation latency = newLatency(iterations, rate);
+            test.prepare(latency, _conf, iterations);
+            System.gc();
+            long startGcCount = 0;
+            long startGcTime = 0;
+            for (GarbageCollectorMXBean gc: _gcs) {
+                startGcCount += gc.getCollectionCount();
+                startGcTime += gc.getCollectionTime();
+            }
+            long compStart = 0;
+            if (_compSupported) {
+                compStart = _comp.getTotalCompilationTime();
+            }
+            ProcCpu cpu = _sigar.getProcCpu(_pid);
+            long userStart = cpu.getUser();
+            long sysStart = cpu.getSys();
+
+            AllocationMeter.reset();
+            long allocStart = AllocationMeter.threadAllocatedBytes();
+            long start = System.nanoTime();
+            test.runTest(iterations);
+            long end = System.nanoTime();
+            AllocationMeter.addSince(allocStart);
+            cpu = _sigar.getProcCpu(_pid);
+            long userEnd = cpu.getUser();
+            long sysEnd = cpu.getSys();
+            long endGcCount = 0;
+            long endGcTime = 0;
+            for (GarbageCollectorMXBean gc: _gcs) {
+                endGcCount += gc.getCollectionCount();
+                endGcTime += gc.getCollectionTime();
+            }
+            long compEnd = 0;
+            if (_compSupported) {
+                compEnd = _comp.getTotalCompilationTime();
+            }
+            test.cleanup();
+            double throughput = ((double)iterations)/(end - start) * 1000000000.0;
+            System.out.printf("%20s\t%,5d\t%,15d\t%,17d\t%,17.0f\t%,4d\t%,5d\t%,8d\t%,8d",testName,num, iterations, end - start,throughput,endGcCount-startGcCount, endGcTime-startGcTime, userEnd-userStart,sysEnd-sysStart);
+            if (_compSupported) {
+                System.out.printf("\t%,6d", compEnd-compStart);
+            }
+            if (_trackAlloc) {
+                System.out.printf("\t%,9.1f", ((double)AllocationMeter.getTotal())/iterations);
+            }
+            if (_trackLatency) {
+                System.out.printf("\t%,15.0f\t%,15.0f\t%,15.0f\t%,15.0f\t%,15.0f", latency.getMin(), latency.get50th(), latency.get90th(), latency.get99th(), latency.getMax());
+            }
+            if (_trackDrops) {
+                System.out.printf("\t%,12d", TestStats.sum("shed."));
+            }
+            System.out.println();
+            for (Map.Entry<String, Long> stat: TestStats.snapshot().entrySet()) {
+                System.out.printf("%20s\t%s = %,d%n", "", stat.getKey(), stat.getValue());
+            }
+            return new RunResult(throughput, latency);
+        }
+    }
+
+    /**
+     * Binary search for the highest open loop rate test can sustain with its 99th percentile
+     * latency at or under sloNanos.  The first run is closed loop to find the upper bound.
+     * A rate passes if the 99th percentile is within the SLO and at least slo.sustain
+     * (default 0.95) of the offered rate was actually achieved.  Each run sends about
+     * slo.seconds (default 5) worth of events, but never more than iterations.  After
+     * slo.steps (default 8) steps the curve of every point visited is printed.
+     */
+    private static void searchSlo(Runner runner, String testName, Test test, int iterations, long sloNanos, Map<String, String> conf) throws Exception {
+        int steps = Q.getInt(conf, "slo.steps", 8);
+        double sustain = Q.getDouble(conf, "slo.sustain", 0.95);
+        double seconds = Q.getDouble(conf, "slo.seconds", 5.0);
+
+        RunResult closed = runner.run(testName, 0, test, iterations, 0);
+        TreeMap<Double, RunResult> curve = new TreeMap<Double, RunResult>();
+        double lo = 0;
+        double hi = closed._throughput;
+        for (int step = 1; step <= steps; step++) {
+            double rate = (lo + hi) / 2;
+            int runIterations = (int)Math.max(1000, Math.min(iterations, rate * seconds));
+            RunResult result = runner.run(testName, step, test, runIterations, rate);
+            curve.put(rate, result);
+            if (result._latency.get99th() <= sloNanos && result._throughput >= rate * sustain) {
+                lo = rate;
+            } else {
+                hi = rate;
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%20s\t%17s\t%17s\t%15s\t%15s\t%15s\t%4s%n", "Test Name", "Offered", "Throughput", "latency 50th", "latency 99th", "max latency", "SLO");
+        for (Map.Entry<Double, RunResult> point: curve.entrySet()) {
+            double rate = point.getKey();
+            RunResult result = point.getValue();
+            boolean ok = result._latency.get99th() <= sloNanos && result._throughput >= rate * sustain;
+            System.out.printf("%20s\t%,17.0f\t%,17.0f\t%,15.0f\t%,15.0f\t%,15.0f\t%4s%n", testName, rate, result._throughput,
+                result._latency.get50th(), result._latency.get99th(), result._latency.getMax(), ok ? "OK" : "MISS");
+        }
+        if (lo > 0) {
+            System.out.printf("%s: highest rate with latency 99th <= %,d ns is %,.0f events/sec (closed loop %,.0f)%n", testName, sloNanos, lo, closed._throughput);
+        } else {
+            System.out.printf("%s: no rate tried kept latency 99th <= %,d ns (closed loop %,.0f)%n", testName, sloNanos, closed._throughput);
+        }
+        System.out.println();
+    }
+
     public static Test NOOP = new Test(){
         private LatencyEstimation _lat;
 
@@ -70,12 +275,26 @@ public class Main {
             //tests.put("Q_RR_B_0100_"+t, new QRoundRobin(1, threads,100));
             //tests.put("Q_RR_B_1000_"+t, new QRoundRobin(1, threads,1000));
             tests.put("Q_RR_X_"+t, new QRoundRobin(threads, threads,1));
+            tests.put("Q_RR_STEAL_"+t, new QRoundRobin(1, threads, 1, true));
+            tests.put("Q_RR_X_STEAL_"+t, new QRoundRobin(threads, threads, 1, true));
             //tests.put("Q_RR_X_B_0001_"+t, new QRoundRobin(threads, threads,1));
             //tests.put("Q_RR_X_B_0010_"+t, new QRoundRobin(threads, threads,10));
             //tests.put("Q_RR_X_B_0100_"+t, new QRoundRobin(threads, threads,100));
             //tests.put("Q_RR_X_B_1000_"+t, new QRoundRobin(threads, threads,1000));
             tests.put("PSUDO_Q_RR_"+t, new PsudoQRoundRobin(threads));
+            tests.put("LAT_OBS_"+t, new LatencyObserver(threads));
+            tests.put("Q_BCAST_"+t, new QBroadcast(threads, false));
+            tests.put("Q_BCAST_COPY_"+t, new QBroadcast(threads, true));
         }
+        //Executors outnumbering cores, the way workers are packed in practice
+        for (int perCore = 4; perCore <= 8; perCore *= 2) {
+            String t = String.format("%02dX", perCore);
+            tests.put("Q_MUX_"+t, new QMultiplex(NUM_CORES*perCore, NUM_CORES));
+            tests.put("Q_MUX_DEDICATED_"+t, new QMultiplex(NUM_CORES*perCore, NUM_CORES*perCore));
+        }
+        //Timer ticks sent to a saturated consumer, on a control lane or behind the data
+        tests.put("Q_PRIO_CONTROL", new QPriority(true));
+        tests.put("Q_PRIO_INLINE", new QPriority(false));
         tests.put("R_MEM_01k", new RandomMemory(1024));
         tests.put("R_MEM_01m", new RandomMemory(1024 * 1024));
         tests.put("R_MEM_10m", new RandomMemory(1024 * 1024 * 10));
@@ -89,6 +308,11 @@ public class Main {
         options.addOption("h", "help", false, "print help message");
         options.addOption("l", "latency", false, "Enable latency measurements");
         options.addOption("e", "hdr-latency", false, "Enable HdrHistogram latency measurements");
+        options.addOption("c", "concurrent-hdr-latency", false, "Enable HdrHistogram latency measurements with a histogram per thread, merged when the test is done");
+        options.addOption("k", "sketch-latency", false, "Enable latency measurements of every event in a fixed size quantile sketch (accuracy set with -D latency.sketch.accuracy, default 0.01)");
+        options.addOption("r", "rate", true, "Send events open loop at this many per second in total, and measure latency from when they were meant to be sent");
+        options.addOption("s", "slo", true, "Instead of running each test -t times, search for the highest rate it sustains with latency 99th at or under this many ns");
+        options.addOption("a", "alloc", false, "Report the bytes allocated per event by the test threads");
         options.addOption("i", "iterations", true, "Number of iterations within each test");
         options.addOption("t", "times", true, "Number of times to run each test");
         options.addOption(OptionBuilder.withArgName("property=value")
@@ -111,8 +335,14 @@ public class Main {
             return;
         }
 
+        boolean trackThreadLocalHdrLatency = cmd.hasOption("c");
         boolean trackHdrLatency = cmd.hasOption("e");
-        boolean trackLatency = cmd.hasOption("l") || trackHdrLatency;
+        boolean trackSketchLatency = cmd.hasOption("k");
+        boolean trackLatency = cmd.hasOption("l") || trackHdrLatency || trackThreadLocalHdrLatency || trackSketchLatency;
+        boolean trackAlloc = cmd.hasOption("a");
+        if (trackAlloc && !AllocationMeter.isSupported()) {
+            System.err.println("WARNING: this JVM cannot measure per thread allocation, B/event will be 0");
+        }
         int iterations = Integer.valueOf(cmd.getOptionValue("i", "1000000"));
         int times = Integer.valueOf(cmd.getOptionValue("t", "5"));
         Map<String, String> conf = new HashMap<String, String>();
@@ -121,8 +351,22 @@ public class Main {
             conf.put(s, props.getProperty(s));
         }
 
-        int sampleGoal = Math.min(100000, iterations);
-        double pct = ((double)sampleGoal)/iterations;
+        long slo = Long.valueOf(cmd.getOptionValue("s", "0"));
+        if (slo > 0 && !trackLatency) {
+            //The search is all about latency
+            trackLatency = true;
+        }
+        double rate = Double.valueOf(cmd.getOptionValue("r", "0"));
+        if (slo > 0 && rate > 0) {
+            System.err.println("WARNING: --rate is ignored with --slo, the search picks the rates");
+            rate = 0;
+        }
+        //HdrHistogram's coordinated omission correction for closed loop runs, open loop runs do not need it
+        long expectedInterval = Q.getLong(conf, "latency.expected-interval-ns", 0);
+        if ((rate > 0 || slo > 0) && expectedInterval > 0) {
+            System.err.println("WARNING: latency.expected-interval-ns is ignored when sending open loop, it would count stalls twice");
+            expectedInterval = 0;
+        }
 
         Set<String> testsToRun = tests.keySet();
         List<String> testArgs = cmd.getArgList();
@@ -148,78 +392,28 @@ public class Main {
         ArrayList<String> testNames = new ArrayList<String>(testsToRun);
         Collections.sort(testNames);
 
-        Sigar sigar = new Sigar();
-        long pid = sigar.getPid();
-
-        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans(); 
-        CompilationMXBean comp = ManagementFactory.getCompilationMXBean();
-        final boolean compSupported = comp != null && comp.isCompilationTimeMonitoringSupported();
+        Runner runner = new Runner(conf, trackLatency, trackHdrLatency, trackThreadLocalHdrLatency, trackSketchLatency, trackAlloc, expectedInterval);
 
         System.out.println("COMMAND LINE: "+ManagementFactory.getRuntimeMXBean().getInputArguments());
         System.out.println("Conf: "+conf);
-        System.out.println();
-        System.out.printf("%20s\t%5s\t%15s\t%17s\t%17s\t%4s\t%5s\t%8s\t%8s","Test Name", "Num", "Iterations", "Time ns", "Throughput", "GC", "GC ms", "USR ms", "SYS ms");
-        if (compSupported) {
-            System.out.printf("\t%6s", "JIT ms");
+        System.out.println("Clock: "+ClockCalibration.measure(1000000));
+        if (rate > 0) {
+            System.out.printf("Open loop at %,.0f events/sec%n", rate);
         }
-        if (trackLatency) {
-            System.out.printf("\t%15s\t%15s\t%15s\t%15s\t%15s", "min latency", "latency 50th", "latency 90th", "latency 99th", "max latency");
+        if (slo > 0) {
+            System.out.printf("Searching for the highest rate with latency 99th <= %,d ns%n", slo);
         }
         System.out.println();
+        runner.printHeader();
+        if (slo > 0) {
+            for (String testName: testNames) {
+                searchSlo(runner, testName, tests.get(testName), iterations, slo, conf);
+            }
+            return;
+        }
         for (int i = 0; i < times; i++) {
             for (String testName: testNames) {
-                Test test = tests.get(testName);
-                LatencyEstimation latency;
-                if (trackLatency) {
-                    if (trackHdrLatency) {
-                        latency = new HdrLatencyEstimationImpl();
-                    } else {
-                        latency = new LatencyEstimationImpl(pct, iterations);
-                    }
-                } else {
-                    latency = new NoopLatencyEstimation();
-                }
-                test.prepare(latency, conf, iterations);
-                System.gc();
-                long startGcCount = 0;
-                long startGcTime = 0;
-                for (GarbageCollectorMXBean gc: gcs) {
-                    startGcCount += gc.getCollectionCount();
-                    startGcTime += gc.getCollectionTime();
-                }
-                long compStart = 0;
-                if (compSupported) {
-                    compStart = comp.getTotalCompilationTime();
-                }
-                ProcCpu cpu = sigar.getProcCpu(pid);
-                long userStart = cpu.getUser();
-                long sysStart = cpu.getSys();
-
-                long start = System.nanoTime();
-                test.runTest(iterations);
-                long end = System.nanoTime();
-                cpu = sigar.getProcCpu(pid);
-                long userEnd = cpu.getUser();
-                long sysEnd = cpu.getSys();
-                long endGcCount = 0;
-                long endGcTime = 0;
-                for (GarbageCollectorMXBean gc: gcs) {
-                    endGcCount += gc.getCollectionCount();
-                    endGcTime += gc.getCollectionTime();
-                }
-                long compEnd = 0;
-                if (compSupported) {
-                    compEnd = comp.getTotalCompilationTime();
-                }
-                test.cleanup();
-                System.out.printf("%20s\t%,5d\t%,15d\t%,17d\t%,17.0f\t%,4d\t%,5d\t%,8d\t%,8d",testName,i+1, iterations, end - start,((double)iterations)/(end - start) * 1000000000.0,endGcCount-startGcCount, endGcTime-startGcTime, userEnd-userStart,sysEnd-sysStart);
-                if (compSupported) {
-                    System.out.printf("\t%,6d", compEnd-compStart);
-                }
-                if (trackLatency) {
-                    System.out.printf("\t%,15.0f\t%,15.0f\t%,15.0f\t%,15.0f\t%,15.0f", latency.getMin(), latency.get50th(), latency.get90th(), latency.get99th(), latency.getMax());
-                }
-                System.out.println();
+                runner.run(testName, i+1, tests.get(testName), iterations, rate);
             }
             System.out.println();
         }
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import storm.perf.com.lmax.disruptor.Sequence;
+
+//Old Code for compatability reasons
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * A multi producer, single consumer queue backed by a power of two ring of references.
+ * Producers claim slots with a single getAndAdd on a shared counter (one per event, or one per
+ * publish(Collection) chunk), so a claim never fails and retries the way a CAS loop does.
+ * Each slot is published on its own with a lazy set, and the consumer drains the run of
+ * published slots in one pass, advancing its cursor once per batch.
+ */
+public class MpscArrayQ implements Q, Watermarks.Gauge {
+    private static final String PREFIX = "mpsc-";
+    private static final int MAX_SLICE = 1024;
+
+    /**
+     * Keep the contended producer counter away from anything else.
+     */
+    static class PaddedAtomicLong extends AtomicLong {
+        public long p1, p2, p3, p4, p5, p6, p7 = 7L;
+
+        PaddedAtomicLong(long initialValue) {
+            super(initialValue);
+        }
+    }
+
+    private final AtomicReferenceArray<Object> _buffer;
+    private final int _mask;
+    private final int _capacity;
+    private final int _spinTries;
+    private final PaddedAtomicLong _tail = new PaddedAtomicLong(0);
+    private final Sequence _head = new Sequence(0);
+    private final String _queueName;
+    private final Watermarks _watermarks = new Watermarks(this);
+    //Only touched by the consumer
+    private Object[] _slice = null;
+
+    public static MpscArrayQ make(String name, int size, Map<String, String> conf) {
+        int spin = Q.getInt(conf, "Q.mpsc.spin", 100);
+        return new MpscArrayQ(name, size, spin);
+    }
+
+    public MpscArrayQ(String queueName, int size, int spinTries) {
+        _queueName = PREFIX + queueName;
+        _buffer = new AtomicReferenceArray<Object>(size);
+        _capacity = size;
+        _mask = size - 1;
+        _spinTries = Math.max(spinTries, 0);
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+        return _queueName;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        consume(handler, _capacity);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        consume(handler, max);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consume(handler, _capacity) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consume(handler) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    /**
+     * Hand at most max of the published events to handler.  Any slot in [head, head + capacity)
+     * that is not null holds exactly the event for that sequence, so the consumer never needs
+     * to read the contended producer counter.
+     * @return the number of events consumed.
+     */
+    int consume(EventHandler<Object> handler, int max) {
+        final AtomicReferenceArray<Object> buffer = _buffer;
+        final long head = _head.get();
+        final long limit = head + Math.min(max, _capacity);
+        long curr = head;
+        Object o = buffer.get((int) curr & _mask);
+        if (o == null) {
+            return 0;
+        }
+        while (true) {
+            final long next = curr + 1;
+            final Object n = next < limit ? buffer.get((int) next & _mask) : null;
+            buffer.lazySet((int) curr & _mask, null);
+            try {
+                handler.onEvent(o, curr, n == null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            curr = next;
+            if (n == null) {
+                break;
+            }
+            o = n;
+        }
+        _head.set(curr);
+        return (int) (curr - head);
+    }
+
+    /**
+     * Copy the run of published events into the consumer's own array and hand it to handler
+     * in one call, the ring holds atomic references so it cannot be handed over directly.
+     * @return the number of events consumed.
+     */
+    private int consume(BatchHandler handler) {
+        final AtomicReferenceArray<Object> buffer = _buffer;
+        Object[] slice = _slice;
+        if (slice == null) {
+            slice = new Object[Math.min(_capacity, MAX_SLICE)];
+            _slice = slice;
+        }
+        final long head = _head.get();
+        int count = 0;
+        while (count < slice.length) {
+            Object o = buffer.get((int) (head + count) & _mask);
+            if (o == null) {
+                break;
+            }
+            slice[count++] = o;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        try {
+            handler.onBatch(slice, 0, count);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            Arrays.fill(slice, 0, count, null);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.lazySet((int) (head + i) & _mask, null);
+        }
+        _head.set(head + count);
+        return count;
+    }
+
+    //@return the consumer's head once it has made room for lastClaimed
+    private long waitForCapacity(long lastClaimed) {
+        final long wrapPoint = lastClaimed - _capacity;
+        long head;
+        while ((head = _head.get()) <= wrapPoint) {
+            Thread.yield();
+        }
+        return head;
+    }
+
+    //Goes by the head the producer already read when claiming, so the cursors are only read
+    //again close to the high mark.  The producer with the latest claim sees the population.
+    private void checkHigh(long lastClaimed, long head) {
+        if (_watermarks.mayBeHigh(lastClaimed + 1 - head)) {
+            _watermarks.checkHigh();
+        }
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        Iterator<Object> it = objs.iterator();
+        int remaining = objs.size();
+        long last = -1;
+        long head = 0;
+        while (remaining > 0) {
+            final int count = Math.min(remaining, _capacity);
+            final long begin = _tail.getAndAdd(count);
+            final long end = begin + count;
+            head = waitForCapacity(end - 1);
+            for (long at = begin; at < end; at++) {
+                _buffer.lazySet((int) at & _mask, it.next());
+            }
+            remaining -= count;
+            last = end - 1;
+        }
+        checkHigh(last, head);
+    }
+
+    @Override
+    public void publish(Object obj) {
+        final long seq = _tail.getAndIncrement();
+        final long head = waitForCapacity(seq);
+        _buffer.lazySet((int) seq & _mask, obj);
+        checkHigh(seq, head);
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        long seq;
+        long head;
+        do {
+            seq = _tail.get();
+            head = _head.get();
+            if (seq - head >= _capacity) {
+                throw InsufficientCapacityException.INSTANCE;
+            }
+        } while (!_tail.compareAndSet(seq, seq + 1));
+        _buffer.lazySet((int) seq & _mask, obj);
+        checkHigh(seq, head);
+    }
+
+    public long population() {
+        return _tail.get() - _head.get();
+    }
+
+    public long capacity() {
+        return _capacity;
+    }
+
+    @Override
+    public void close() {
+        //NOOP
+    }
+}
@@ -0,0 +1,128 @@
+package testing;
+
+import com.lmax.disruptor.EventHandler;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Like EventThread, but one thread serves several input queues, the way a worker would run
+ * many small executors on fewer threads.  Each round visits every input once, starting one
+ * further along each time, and takes at most batchCap events from it so a busy input cannot
+ * starve the others.  The thread only parks once a whole round came up empty, on a signal
+ * that every input has to be wrapped in a WakeupQ for.
+ *
+ * Rounds, empty rounds and parks are reported in TestStats under mux.*.
+ */
+public abstract class MultiInputEventThread<T extends TestData> extends Thread implements EventHandler<Object> {
+    //Only a safety net, normally a publisher wakes us up
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Q[] _inputs;
+    private final WakeupQ.Signal _wakeup;
+    private final int _batchCap;
+    private final CountDownLatch _startSignal;
+    private final CountDownLatch _doneSignal;
+    private int _numDoneMessages;
+    private boolean _isDone = false;
+    private long _consumed = 0;
+    private int _start = 0;
+    private int _current = 0;
+
+    /**
+     * @param inputs the queues to serve, all of them wrapped in a WakeupQ for wakeup.
+     * @param numDoneMessages the number of allDone messages to wait for across all inputs.
+     */
+    public MultiInputEventThread(CountDownLatch startSignal, CountDownLatch doneSignal, List<Q> inputs, WakeupQ.Signal wakeup, int batchCap, int numDoneMessages) {
+        _inputs = inputs.toArray(new Q[inputs.size()]);
+        _wakeup = wakeup;
+        _batchCap = Math.max(batchCap, 1);
+        _startSignal = startSignal;
+        _doneSignal = doneSignal;
+        _numDoneMessages = numDoneMessages;
+    }
+
+    //@return the number of events consumed in one pass over every input
+    private long pollAll() {
+        final long before = _consumed;
+        final Q[] inputs = _inputs;
+        final int numInputs = inputs.length;
+        int at = _start;
+        for (int i = 0; i < numInputs; i++) {
+            _current = at;
+            inputs[at].consumeBatch(this, _batchCap);
+            at++;
+            if (at == numInputs) {
+                at = 0;
+            }
+        }
+        _start++;
+        if (_start == numInputs) {
+            _start = 0;
+        }
+        return _consumed - before;
+    }
+
+    @Override
+    public void run() {
+        long allocStart = AllocationMeter.threadAllocatedBytes();
+        try {
+            AtomicLong roundsCounter = TestStats.counter("mux.rounds");
+            AtomicLong emptyCounter = TestStats.counter("mux.empty-rounds");
+            AtomicLong parksCounter = TestStats.counter("mux.parks");
+            long rounds = 0;
+            long empty = 0;
+            long parks = 0;
+            _startSignal.await();
+            while (!_isDone) {
+                rounds++;
+                if (pollAll() == 0) {
+                    empty++;
+                    _wakeup.prepareToSleep();
+                    if (pollAll() == 0 && !_isDone) {
+                        parks++;
+                        _wakeup.sleep(MAX_PARK_NANOS);
+                        if (Thread.interrupted()) {
+                            throw new InterruptedException();
+                        }
+                    } else {
+                        _wakeup.cancelSleep();
+                    }
+                }
+            }
+            roundsCounter.addAndGet(rounds);
+            emptyCounter.addAndGet(empty);
+            parksCounter.addAndGet(parks);
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            AllocationMeter.addSince(allocStart);
+            _doneSignal.countDown();
+            onAllDone();
+        }
+    }
+
+    @Override
+    public void onEvent(Object event, long sequence, boolean endOfBatch) throws Exception {
+        T data = (T)event;
+        if (data.allDone) {
+            _numDoneMessages--;
+            if (_numDoneMessages <= 0) {
+                _isDone = true;
+            }
+        }
+        _consumed++;
+        onEvent(_current, data);
+    }
+
+    /**
+     * @param input the index of the input queue event came from.
+     */
+    public abstract void onEvent(int input, T event) throws Exception;
+
+    public void onAllDone() {
+        //Empty
+    }
+}
@@ -23,23 +23,23 @@ import storm.perf.com.lmax.disruptor.RingBuffer;
 import storm.perf.com.lmax.disruptor.Sequence;
 import storm.perf.com.lmax.disruptor.SequenceBarrier;
 import storm.perf.com.lmax.disruptor.WaitStrategy;
-import storm.perf.com.lmax.disruptor.BlockingWaitStrategy;
-import storm.perf.com.lmax.disruptor.LiteBlockingWaitStrategy;
-import storm.perf.com.lmax.disruptor.TimeoutBlockingWaitStrategy;
 import storm.perf.com.lmax.disruptor.TimeoutException;
 
 //Old Code for compatability reasons
 import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.InsufficientCapacityException;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
@@ -52,6 +52,9 @@ import backtype.storm.metric.api.IStatefulObject;
 public class NBLatestDisruptorQ implements Q {
     public static class MutableObject {
         private Object o = null;
+        //Reusable event owned by this slot, filled in by _owner
+        private Object _slotEvent = null;
+        private QTranslator _owner = null;
     
         public MutableObject() {
         
@@ -68,6 +71,16 @@ public class NBLatestDisruptorQ implements Q {
         public Object getObject() {
             return o;
         }
+
+        public <T, A> void translate(QTranslator<T, A> translator, long sequence, A arg) {
+            if (_owner != translator) {
+                _slotEvent = translator.newInstance();
+                _owner = translator;
+            }
+            T event = (T)_slotEvent;
+            translator.translateTo(event, sequence, arg);
+            this.o = event;
+        }
     }
 
     private static final Object INTERRUPT = new Object();
@@ -80,114 +93,295 @@ public class NBLatestDisruptorQ implements Q {
         }
     }
 
-    private class ThreadLocalBatcher {
-        private final ReentrantLock _flushLock;
-        private final ConcurrentLinkedQueue<ArrayList<Object>> _overflow;
-        private ArrayList<Object> _currentBatch;
+    /**
+     * A run of events waiting to get into the ring, _events[_start, _end).
+     * Batches are recycled by the batcher that owns them.
+     */
+    private static class Batch {
+        private final Object[] _events;
+        private int _start = 0;
+        private int _end = 0;
+
+        public Batch(int size) {
+            _events = new Object[size];
+        }
+
+        public int size() {
+            return _end - _start;
+        }
+
+        public List<Object> asList() {
+            return Arrays.asList(_events).subList(_start, _end);
+        }
+    }
+
+    /**
+     * Only the thread that owns a batcher ever writes events into it, and it does so without
+     * a lock.  It tells the flusher how many events are in the current batch with a lazy set,
+     * and only takes _flushLock once per batch, when the batch is full.  The flusher takes
+     * whatever prefix of the current batch it can see while holding _flushLock.  With a batch
+     * size of 1 events skip the batch, and the lock, and go straight into the ring unless
+     * overflow is waiting ahead of them, and the watermark is only checked every 1/16th of
+     * the ring.
+     *
+     * The batcher arms itself with the FlushScheduler whenever it is holding data and is not
+     * already armed.  The scheduler disarms it before flushing, and the owner writes _written
+     * before checking if it is armed, so one of them always sees the other.
+     */
+    private class ThreadLocalBatcher extends FlushScheduler.Task {
+        private final ReentrantLock _flushLock = new ReentrantLock();
+        //Everything below here is only changed while holding _flushLock
+        private final ArrayDeque<Batch> _overflow = new ArrayDeque<Batch>();
+        private final ArrayDeque<Batch> _free = new ArrayDeque<Batch>();
+        private final int _maxFree;
+        private Batch _current;
+        //How much of _current has already been put into the ring by the flusher
+        private volatile int _taken = 0;
+        //Events waiting in _overflow or _spill
+        private volatile long _overflowEvents = 0;
+        //Created the first time this batcher needs to spill
+        private volatile SpillFile _spill = null;
+        //Only touched by the owning thread, _written mirrors it for everyone else
+        private int _count = 0;
+        private final Sequence _written = new Sequence(0);
 
         public ThreadLocalBatcher() {
-            _flushLock = new ReentrantLock();
-            _overflow = new ConcurrentLinkedQueue<ArrayList<Object>>();
-            _currentBatch = new ArrayList<Object>(_inputBatchSize);
-        }
-
-        //called by the main thread and should not block for an undefined period of time
-        public synchronized void add(Object obj) {
-            _currentBatch.add(obj);
-            _overflowCount.incrementAndGet();
-            if (_enableBackpressure && _cb != null && (_metrics.population() + _overflowCount.get()) >= _highWaterMark) {
-                try {
-                    if (!_throttleOn) {
-                        _cb.highWaterMark();
-                        _throttleOn = true;
-                    }
-                } catch (Exception e) {
-                    throw new RuntimeException("Exception during calling highWaterMark callback!", e);
+            _current = new Batch(_inputBatchSize);
+            //Never hold on to more spare batches than it would take to fill the ring
+            _maxFree = Math.max(1, _buffer.getBufferSize() / _inputBatchSize);
+        }
+
+        //called by the owning thread and should not block for an undefined period of time
+        public void add(Object obj) {
+            if (tryPublishDirect(obj)) {
+                return;
+            }
+            _current._events[_count++] = obj;
+            if (_count >= _inputBatchSize) {
+                endBatch();
+            } else {
+                _written.setVolatile(_count);
+                if (!isArmed()) {
+                    _scheduler.arm(this, _lingerNanos);
                 }
             }
-            if (_currentBatch.size() >= _inputBatchSize) {
-                boolean flushed = false;
-                if (_overflow.isEmpty()) {
+        }
+
+        public long pending() {
+            return _overflowEvents + (_written.get() - _taken);
+        }
+
+        public long inMemory() {
+            return _overflowEvents;
+        }
+
+        private boolean hasOverflow() {
+            return _overflowEvents > 0;
+        }
+
+        private Batch newBatch() {
+            Batch ret = _free.poll();
+            if (ret == null) {
+                ret = new Batch(_inputBatchSize);
+            }
+            return ret;
+        }
+
+        private void recycle(Batch batch) {
+            if (_free.size() < _maxFree) {
+                Arrays.fill(batch._events, null);
+                batch._start = 0;
+                batch._end = 0;
+                _free.add(batch);
+            }
+        }
+
+        //called by the owning thread once the current batch is full
+        private void endBatch() {
+            _flushLock.lock();
+            try {
+                Batch full = _current;
+                full._start = _taken;
+                full._end = _count;
+                boolean flushed = full.size() == 0;
+                if (!flushed && drainOverflow(false)) {
                     try {
-                        publishDirect(_currentBatch, false);
-                        _overflowCount.addAndGet(0 - _currentBatch.size());
-                        _currentBatch.clear();
+                        publishDirect(full._events, full._start, full._end, false);
                         flushed = true;
                     } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
                         //Ignored we will flush later
                     }
                 }
+                if (!flushed) {
+                    addOverflow(full);
+                    _current = newBatch();
+                }
+                _count = 0;
+                _taken = 0;
+                _written.set(0);
+                _watermarks.checkHigh();
+            } finally {
+                _flushLock.unlock();
+            }
+            if (hasOverflow() && !isArmed()) {
+                _scheduler.arm(this, _lingerNanos);
+            }
+        }
+
+        //Should only be called while holding _flushLock.
+        //Once anything has been spilled everything after it is spilled too until the
+        // spill file drains, so the memory overflow is always older than the spilled batches.
+        private void addOverflow(Batch batch) {
+            if (_maxOverflowInMemory > 0) {
+                SpillFile spill = _spill;
+                if ((spill != null && !spill.isEmpty()) || (inMemoryOverflow() + batch.size()) > _maxOverflowInMemory) {
+                    if (_spilledBytes.get() < _maxSpillBytes) {
+                        spill(batch);
+                        recycle(batch);
+                    } else {
+                        //No room anywhere, so wait for everything ahead of us to get into the ring
+                        drainOverflow(true);
+                        try {
+                            publishDirect(batch._events, batch._start, batch._end, true);
+                        } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
+                            //This should be impossible
+                            throw new RuntimeException(e);
+                        }
+                        recycle(batch);
+                    }
+                    return;
+                }
+            }
+            _overflow.add(batch);
+            _overflowEvents += batch.size();
+        }
 
-                if (!flushed) {        
-                    _overflow.add(_currentBatch);
-                    _currentBatch = new ArrayList<Object>(_inputBatchSize);
+        private void spill(Batch batch) {
+            try {
+                if (_spill == null) {
+                    _spill = new SpillFile(_queueName, _spillDir, _maxSpillBytes / 2);
                 }
+                _spilledBytes.addAndGet(_spill.append(batch.asList()));
+                _spilledEvents.addAndGet(batch.size());
+                _overflowEvents += batch.size();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not spill overflow for " + _queueName, e);
             }
         }
 
-        //May be called by a background thread
-        public synchronized void forceBatch() {
-            if (!_currentBatch.isEmpty()) {
-                _overflow.add(_currentBatch);
-                _currentBatch = new ArrayList<Object>(_inputBatchSize);
+        public void closeSpill() {
+            SpillFile spill = _spill;
+            if (spill != null) {
+                spill.close();
             }
         }
 
-        //May be called by a background thread
-        public void flush(boolean block) {
-            if (block) {
-                _flushLock.lock();
-            } else if (!_flushLock.tryLock()) {
-               //Someone else if flushing so don't do anything
-               return;
+        //called by the owning thread, only writes straight into the ring if we are not batching
+        //and nothing is waiting ahead of it
+        public <T, A> boolean tryPublishDirect(QTranslator<T, A> translator, A arg) {
+            if (_inputBatchSize > 1 || _count > 0 || hasOverflow()) {
+                return false;
             }
+            final long id;
             try {
-                while (!_overflow.isEmpty()) {
-                    publishDirect(_overflow.peek(), block);
-                    _overflowCount.addAndGet(0 - _overflow.poll().size());
-                }
+                id = _buffer.tryNext();
             } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
-                //Ignored we should not block
-            } finally {
-                _flushLock.unlock();
+                return false;
             }
+            _buffer.get(id).translate(translator, id, arg);
+            _buffer.publish(id);
+            checkHighAt(id);
+            return true;
         }
-    }
 
-    private class FlusherThread extends Thread {
-        private final long _flushInterval;
-        private volatile boolean _done;
+        //called by the owning thread, with a batch size of 1 every add would end a batch and
+        //take _flushLock, so go straight into the ring when nothing is waiting ahead of it
+        private boolean tryPublishDirect(Object obj) {
+            if (_inputBatchSize > 1 || _count > 0 || hasOverflow()) {
+                return false;
+            }
+            final long id;
+            try {
+                id = _buffer.tryNext();
+            } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
+                return false;
+            }
+            _buffer.get(id).setObject(obj);
+            _buffer.publish(id);
+            checkHighAt(id);
+            return true;
+        }
 
-        public FlusherThread(long flushInterval, String name) {
-            super(name+"-flusher");
-            _flushInterval = flushInterval;
-            _done = false;
-            setDaemon(true);
+        //Checking the watermark reads the consumer and every batcher, too much to do for each
+        //event going straight into the ring, so only do it once the claimed sequence crosses
+        //a stride.  A full ring sends events through endBatch, which always checks.
+        private void checkHighAt(long id) {
+            if ((id & _checkHighMask) == 0) {
+                _watermarks.checkHigh();
+            }
         }
 
-        public void run() {
+        //Should only be called while holding _flushLock
+        //@return true if everything in the overflow made it into the ring
+        private boolean drainOverflow(boolean block) {
             try {
-                long nextFlushTime = System.currentTimeMillis();
-                while (!_done) {
-                    long now = System.currentTimeMillis();
-                    if (now >= nextFlushTime) {
-                        for (ThreadLocalBatcher batcher: _batchers.values()) {
-                            batcher.forceBatch();
-                            batcher.flush(true);
-                        }
-                        nextFlushTime = now + _flushInterval;
+                while (true) {
+                    Batch batch = _overflow.peek();
+                    SpillFile spill = _spill;
+                    ArrayList<Object> spilled;
+                    if (batch != null) {
+                        publishDirect(batch._events, batch._start, batch._end, block);
+                        _overflow.poll();
+                        _overflowEvents -= batch.size();
+                        recycle(batch);
+                    } else if (spill != null && (spilled = spill.peek()) != null) {
+                        Object[] events = spilled.toArray();
+                        publishDirect(events, 0, events.length, block);
+                        _spilledBytes.addAndGet(0 - spill.remove());
+                        _spilledEvents.addAndGet(0 - events.length);
+                        _overflowEvents -= events.length;
                     } else {
-                        Thread.sleep(nextFlushTime - now);
+                        return true;
                     }
                 }
-            } catch (InterruptedException e) {
-                //Ignored we are done
+            } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
+                //Ignored we should not block
+                return false;
+            } catch (IOException e) {
+                throw new RuntimeException("Could not replay spilled overflow for " + _queueName, e);
             }
         }
 
-        public void close() {
-            _done = true;
-            interrupt();
+        //Called by the FlushScheduler, it cannot block
+        @Override
+        protected boolean flush() {
+            flush(false);
+            return pending() == 0;
+        }
+
+        //May be called by a background thread
+        public void flush(boolean block) {
+            if (block) {
+                _flushLock.lock();
+            } else if (!_flushLock.tryLock()) {
+               //Someone else if flushing so don't do anything
+               return;
+            }
+            try {
+                if (drainOverflow(block)) {
+                    //Take whatever the owner has written so far, it keeps adding after it
+                    final int written = (int) _written.get();
+                    final int taken = _taken;
+                    if (written > taken) {
+                        publishDirect(_current._events, taken, written, block);
+                        _taken = written;
+                    }
+                }
+            } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
+                //Ignored we should not block
+            } finally {
+                _flushLock.unlock();
+            }
         }
     }
 
@@ -204,7 +398,19 @@ public class NBLatestDisruptorQ implements Q {
         }
 
         public long overflow() {
-            return _overflowCount.get();
+            long ret = 0;
+            for (ThreadLocalBatcher batcher: _batchers) {
+                ret += batcher.pending();
+            }
+            return ret;
+        }
+
+        public long spilled() {
+            return _spilledEvents.get();
+        }
+
+        public long spilledBytes() {
+            return _spilledBytes.get();
         }
 
         public long population() {
@@ -224,35 +430,62 @@ public class NBLatestDisruptorQ implements Q {
     private final Sequence _consumer;
     private final SequenceBarrier _barrier;
     private final int _inputBatchSize;
-    private final ConcurrentHashMap<Long, ThreadLocalBatcher> _batchers = new ConcurrentHashMap<Long, ThreadLocalBatcher>();
-    private final FlusherThread _flusher;
+    private final ThreadLocal<ThreadLocalBatcher> _localBatcher = new ThreadLocal<ThreadLocalBatcher>();
+    private volatile ThreadLocalBatcher[] _batchers = new ThreadLocalBatcher[0];
+    private final FlushScheduler _scheduler = FlushScheduler.get();
+    private final long _lingerNanos;
+    private final long _checkHighMask;
     private final QueueMetrics _metrics;
 
     private String _queueName = "";
-    private BpCb _cb = null;
-    private int _highWaterMark = 0;
-    private int _lowWaterMark = 0;
-    private boolean _enableBackpressure = true;
-    private final AtomicLong _overflowCount = new AtomicLong(0);
-    private volatile boolean _throttleOn = false;
+    //The overflow counts towards how full the queue is
+    private final Watermarks _watermarks = new Watermarks(new Watermarks.Gauge() {
+        @Override
+        public long population() {
+            return _metrics.population() + _metrics.overflow();
+        }
+
+        @Override
+        public long capacity() {
+            return _metrics.capacity();
+        }
+    });
+    //Overflow limits, a _maxOverflowInMemory of 0 means overflow is unbounded
+    private long _maxOverflowInMemory = 0;
+    private long _maxSpillBytes = 0;
+    private File _spillDir = null;
+    private final AtomicLong _spilledEvents = new AtomicLong(0);
+    private final AtomicLong _spilledBytes = new AtomicLong(0);
 
     public static NBLatestDisruptorQ make(String name, int size, int batch, Map<String, String> conf) {
         long timeout = Q.getLong(conf, "Q.disruptor.timeout", 1000l);
         int flushInterval = Q.getInt(conf, "Q.disruptor.flush-interval", 1);
         boolean useLite = conf.containsKey("Q.disruptor.lite-blocking");
+        long maxOverflow = Q.getLong(conf, "Q.disruptor.overflow.max-events", 0);
+        long maxSpillBytes = Q.getLong(conf, "Q.disruptor.overflow.spill-bytes", 0);
+        String spillDir = conf.get("Q.disruptor.overflow.spill-dir");
 
-        return new NBLatestDisruptorQ(name, size, timeout, batch, flushInterval, useLite);
+        WaitStrategy wait = WaitStrategies.make(PREFIX + name, conf, defaultWait(timeout, useLite), timeout);
+
+        NBLatestDisruptorQ ret = new NBLatestDisruptorQ(name, size, batch, flushInterval, wait);
+        ret.setOverflowLimits(maxOverflow, maxSpillBytes, spillDir == null ? null : new File(spillDir));
+        return ret;
     }
 
-    public NBLatestDisruptorQ(String queueName, int size, long readTimeout, int inputBatchSize, long flushInterval, boolean useLite) {
-        this._queueName = PREFIX + queueName;
-        WaitStrategy wait = null;
+    private static String defaultWait(long readTimeout, boolean useLite) {
         if (readTimeout <= 0 || useLite) {
-            wait = new LiteBlockingWaitStrategy();
-        } else {
-            wait = new TimeoutBlockingWaitStrategy(readTimeout, TimeUnit.MILLISECONDS);
+            return WaitStrategies.LITE_BLOCKING;
         }
+        return WaitStrategies.TIMEOUT_BLOCKING;
+    }
 
+    public NBLatestDisruptorQ(String queueName, int size, long readTimeout, int inputBatchSize, long flushInterval, boolean useLite) {
+        this(queueName, size, inputBatchSize, flushInterval,
+             WaitStrategies.make(defaultWait(readTimeout, useLite), readTimeout, Collections.<String, String>emptyMap()));
+    }
+
+    public NBLatestDisruptorQ(String queueName, int size, int inputBatchSize, long flushInterval, WaitStrategy wait) {
+        this._queueName = PREFIX + queueName;
         _buffer = RingBuffer.createMultiProducer(new ObjectEventFactory(), size, wait);
         _consumer = new Sequence();
         _barrier = _buffer.newBarrier();
@@ -262,15 +495,13 @@ public class NBLatestDisruptorQ implements Q {
         //This is mostly to avoid contention issues.
         _inputBatchSize = Math.max(1, Math.min(inputBatchSize, size/2));
 
-        _flusher = new FlusherThread(Math.max(flushInterval, 1), _queueName);
-        _flusher.start();
-        setHighWaterMark(0.9);
-        setLowWaterMark(0.4);
+        _lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(flushInterval, 1));
+        _checkHighMask = Math.max(_buffer.getBufferSize() / 16, 1) - 1;
     }
 
     @Override
     public boolean isThrottled() {
-        return _throttleOn;
+        return _watermarks.isThrottled();
     }
 
     public String getName() {
@@ -278,26 +509,43 @@ public class NBLatestDisruptorQ implements Q {
     }
 
     public boolean isFull() {
-        return (_metrics.population() + _overflowCount.get()) >= _metrics.capacity();
+        return (_metrics.population() + _metrics.overflow()) >= _metrics.capacity();
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        //publishEvent fills in the event kept in the slot
+        return true;
     }
 
     @Override
     public void close() {
         try {
-            publishDirect(new ArrayList<Object>(Arrays.asList(INTERRUPT)), true);
-            _flusher.close();
-            _flusher.join();
+            publishDirect(new Object[] {INTERRUPT}, 0, 1, true);
+            for (ThreadLocalBatcher batcher: _batchers) {
+                batcher.cancel();
+                batcher.closeSpill();
+            }
         } catch (storm.perf.com.lmax.disruptor.InsufficientCapacityException e) {
             //This should be impossible
             throw new RuntimeException(e);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
         }
     }
 
     public void consumeBatch(EventHandler<Object> handler) {
-        if (_metrics.population() > 0) {
-            consumeBatchWhenAvailable(handler);
+        consumeBatch(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        //Never waits, what is still in the overflow is not in the ring yet anyways
+        final long next = _consumer.get() + 1;
+        final long limit = Math.min(_barrier.getCursor(), next + Math.max(max, 1) - 1);
+        final long available = _buffer.getHighestPublishedSequence(next, limit);
+        if (available >= next) {
+            consumeBatchToCursor(available, handler);
+        } else {
+            _watermarks.checkLow();
         }
     }
 
@@ -310,7 +558,7 @@ public class NBLatestDisruptorQ implements Q {
                 consumeBatchToCursor(availableSequence, handler);
             }
         } catch (TimeoutException te) {
-            //Ignored for now
+            _watermarks.checkLow();
         } catch (AlertException e) {
             throw new RuntimeException(e);
         } catch (InterruptedException e) {
@@ -330,16 +578,6 @@ public class NBLatestDisruptorQ implements Q {
                     System.err.println("Got a null message "+ curr + " " + _queueName + " " + mo.getObject());
                 } else {
                     handler.onEvent(o, curr, curr == cursor);
-                    if (_enableBackpressure && _cb != null && (_metrics.writePos() - curr + _overflowCount.get()) <= _lowWaterMark) {
-                        try {
-                            if (_throttleOn) {
-                                _throttleOn = false;
-                                _cb.lowWaterMark();
-                            }
-                        } catch (Exception e) {
-                            throw new RuntimeException("Exception during calling lowWaterMark callback!");
-                        }
-                    }
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -347,19 +585,25 @@ public class NBLatestDisruptorQ implements Q {
         }
         //TODO: only set this if the consumer cursor has changed?
         _consumer.set(cursor);
+        //Checked once per batch, the overflow is spread over all of the producers
+        _watermarks.checkLow();
     }
 
-    @Override
-    public void register(BpCb cb) {
-        this._cb = cb;
+    private long inMemoryOverflow() {
+        long ret = 0;
+        for (ThreadLocalBatcher batcher: _batchers) {
+            ret += batcher.inMemory();
+        }
+        return ret - _spilledEvents.get();
     }
 
-    private static Long getId() {
-        return Thread.currentThread().getId();
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
     }
 
-    private void publishDirect(ArrayList<Object> objs, boolean block) throws storm.perf.com.lmax.disruptor.InsufficientCapacityException {
-        int size = objs.size();
+    private void publishDirect(Object[] objs, int from, int to, boolean block) throws storm.perf.com.lmax.disruptor.InsufficientCapacityException {
+        int size = to - from;
         if (size > 0) {
             long end;
             if (block) {
@@ -369,65 +613,101 @@ public class NBLatestDisruptorQ implements Q {
             }
             long begin = end - (size - 1);
             long at = begin;
-            for (Object obj: objs) {
+            for (int i = from; i < to; i++) {
                 MutableObject m = _buffer.get(at);
-                m.setObject(obj);
+                m.setObject(objs[i]);
                 at++;
             }
             _buffer.publish(begin, end);
         }
     }
 
-    public void tryPublish(Object obj) {
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        if (_maxOverflowInMemory > 0 && inMemoryOverflow() >= _maxOverflowInMemory
+            && _spilledBytes.get() >= _maxSpillBytes) {
+            throw InsufficientCapacityException.INSTANCE;
+        }
         publish(obj);
     }
 
-    public void publish(Object obj) {
-        Long id = getId();
-        ThreadLocalBatcher batcher = _batchers.get(id);
+    private ThreadLocalBatcher getBatcher() {
+        ThreadLocalBatcher batcher = _localBatcher.get();
         if (batcher == null) {
-            //This thread is the only one ever creating this, so this is safe
-            batcher = new ThreadLocalBatcher();
-            _batchers.put(id, batcher);
+            batcher = addBatcher();
+            _localBatcher.set(batcher);
         }
-        batcher.add(obj);
-        batcher.flush(false);
+        return batcher;
     }
 
-    public void publish(Collection<Object> objs) {
-        Long id = getId();
-        ThreadLocalBatcher batcher = _batchers.get(id);
-        if (batcher == null) {
-            //This thread is the only one ever creating this, so this is safe
-            batcher = new ThreadLocalBatcher();
-            _batchers.put(id, batcher);
+    private synchronized ThreadLocalBatcher addBatcher() {
+        ThreadLocalBatcher[] batchers = _batchers;
+        ThreadLocalBatcher batcher = new ThreadLocalBatcher();
+        ThreadLocalBatcher[] updated = Arrays.copyOf(batchers, batchers.length + 1);
+        updated[batchers.length] = batcher;
+        _batchers = updated;
+        return batcher;
+    }
+
+    public void publish(Object obj) {
+        getBatcher().add(obj);
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        ThreadLocalBatcher batcher = getBatcher();
+        if (!batcher.tryPublishDirect(translator, arg)) {
+            //Batched events have to live somewhere until they are flushed, so copy into a new one
+            T event = translator.newInstance();
+            translator.translateTo(event, -1, arg);
+            batcher.add(event);
         }
+    }
+
+    public void publish(Collection<Object> objs) {
+        ThreadLocalBatcher batcher = getBatcher();
         for (Object obj: objs) {
             batcher.add(obj);
         }
-        batcher.flush(false);
     }
 
     public Q setHighWaterMark(double highWaterMark) {
-        this._highWaterMark = (int)(_metrics.capacity() * highWaterMark);
+        _watermarks.setHigh(highWaterMark);
         return this;
     }
 
     public Q setLowWaterMark(double lowWaterMark) {
-        this._lowWaterMark = (int)(_metrics.capacity() * lowWaterMark);
+        _watermarks.setLow(lowWaterMark);
         return this;
     }
 
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
+    }
+
     public int getHighWaterMark() {
-        return this._highWaterMark;
+        return (int) _watermarks.getHigh();
     }
 
     public int getLowWaterMark() {
-        return this._lowWaterMark;
+        return (int) _watermarks.getLow();
+    }
+
+    /**
+     * Bound how much can pile up in the overflow.  Once more than maxInMemory events are
+     * waiting, whole batches are spilled to a file in spillDir (the temp dir if null) until
+     * maxSpillBytes are on disk, after that publish blocks and tryPublish throws.
+     * A maxInMemory of 0 leaves the overflow unbounded.
+     */
+    public Q setOverflowLimits(long maxInMemory, long maxSpillBytes, File spillDir) {
+        this._maxOverflowInMemory = maxInMemory;
+        this._maxSpillBytes = maxSpillBytes;
+        this._spillDir = spillDir;
+        return this;
     }
 
     public Q setEnableBackpressure(boolean enableBackpressure) {
-        this._enableBackpressure = enableBackpressure;
+        _watermarks.setEnabled(enableBackpressure);
         return this;
     }
 
@@ -0,0 +1,306 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import storm.perf.com.lmax.disruptor.Sequence;
+
+//Old Code for compatability reasons
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * A multi producer, single consumer queue that copies fixed layout events into an off heap
+ * ring of records using an EventCodec, instead of holding references to heap objects.
+ * The consumer is handed a single reusable flyweight that is pointed at each record in turn,
+ * so it must not hold on to the event after onEvent returns.  Anything it wants to pass on has
+ * to be published again, which copies it into the next ring.
+ *
+ * Slots are claimed the same way MpscArrayQ claims them, and a slot is published by storing
+ * its sequence in a separate array once the record has been written.
+ */
+public class OffHeapStructQ implements Q, Watermarks.Gauge {
+    private static final String PREFIX = "offheap-";
+
+    /**
+     * A producer's reusable event for publishEvent, it is copied into the ring by the codec.
+     */
+    private static class Scratch {
+        private QTranslator _owner = null;
+        private Object _event = null;
+    }
+
+    private final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+    private final ByteBuffer _buffer;
+    private final AtomicLongArray _published;
+    private final EventCodec<Object> _codec;
+    private final Object _flyweight;
+    private final int _recordSize;
+    private final int _mask;
+    private final int _capacity;
+    private final int _spinTries;
+    private final MpscArrayQ.PaddedAtomicLong _tail = new MpscArrayQ.PaddedAtomicLong(0);
+    private final Sequence _head = new Sequence(0);
+    private final String _queueName;
+    private final Watermarks _watermarks = new Watermarks(this);
+    //The flyweight is pointed at the next record for every event, so a BatchHandler can only
+    //be given one record at a time
+    private final Object[] _slice = new Object[1];
+    private BatchHandler _sliceHandler = null;
+    private final EventHandler<Object> _sliceAdapter = new EventHandler<Object>() {
+        @Override
+        public void onEvent(Object event, long sequence, boolean endOfBatch) throws Exception {
+            _slice[0] = event;
+            _sliceHandler.onBatch(_slice, 0, 1);
+        }
+    };
+
+    public static OffHeapStructQ make(String name, int size, Map<String, String> conf) {
+        String codecName = conf.get("Q.offheap.codec");
+        EventCodec<Object> codec;
+        if (codecName == null) {
+            codec = (EventCodec)new TestDataCodec();
+        } else {
+            try {
+                codec = (EventCodec<Object>)Class.forName(codecName).newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException(codecName + " is not a valid EventCodec", e);
+            }
+        }
+        int spin = Q.getInt(conf, "Q.offheap.spin", 100);
+        return new OffHeapStructQ(name, size, codec, spin);
+    }
+
+    public OffHeapStructQ(String queueName, int size, EventCodec<Object> codec, int spinTries) {
+        _queueName = PREFIX + queueName;
+        _codec = codec;
+        _flyweight = codec.newFlyweight();
+        _recordSize = codec.recordSize();
+        _capacity = size;
+        _mask = size - 1;
+        _spinTries = Math.max(spinTries, 0);
+        _buffer = ByteBuffer.allocateDirect(size * _recordSize).order(ByteOrder.nativeOrder());
+        _published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            _published.set(i, -1);
+        }
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+        return _queueName;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        consume(handler, _capacity);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        consume(handler, max);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consume(handler, _capacity) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        _sliceHandler = handler;
+        consumeBatchWhenAvailable(_sliceAdapter);
+    }
+
+    private boolean isPublished(long seq) {
+        return _published.get((int) seq & _mask) == seq;
+    }
+
+    private int consume(EventHandler<Object> handler, int max) {
+        final long head = _head.get();
+        final long limit = head + Math.min(max, _capacity);
+        if (!isPublished(head)) {
+            return 0;
+        }
+        long curr = head;
+        while (true) {
+            final long next = curr + 1;
+            final boolean more = next < limit && isPublished(next);
+            _codec.wrap(_flyweight, _buffer, ((int) curr & _mask) * _recordSize);
+            try {
+                handler.onEvent(_flyweight, curr, !more);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            curr = next;
+            if (!more) {
+                break;
+            }
+        }
+        _head.set(curr);
+        return (int) (curr - head);
+    }
+
+    private void checkSupported(Object obj) {
+        if (!_codec.supports(obj)) {
+            throw new IllegalArgumentException(obj + " cannot be encoded by " + _codec.getClass().getName());
+        }
+    }
+
+    //@return the consumer's head once it has made room for lastClaimed
+    private long waitForCapacity(long lastClaimed) {
+        final long wrapPoint = lastClaimed - _capacity;
+        long head;
+        while ((head = _head.get()) <= wrapPoint) {
+            Thread.yield();
+        }
+        return head;
+    }
+
+    //Goes by the head the producer already read when claiming, so the cursors are only read
+    //again close to the high mark.  The producer with the latest claim sees the population.
+    private void checkHigh(long lastClaimed, long head) {
+        if (_watermarks.mayBeHigh(lastClaimed + 1 - head)) {
+            _watermarks.checkHigh();
+        }
+    }
+
+    private void write(long seq, Object obj) {
+        final int index = (int) seq & _mask;
+        _codec.encode(obj, _buffer, index * _recordSize);
+        _published.lazySet(index, seq);
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        for (Object obj: objs) {
+            checkSupported(obj);
+        }
+        Iterator<Object> it = objs.iterator();
+        int remaining = objs.size();
+        long last = -1;
+        long head = 0;
+        while (remaining > 0) {
+            final int count = Math.min(remaining, _capacity);
+            final long begin = _tail.getAndAdd(count);
+            final long end = begin + count;
+            head = waitForCapacity(end - 1);
+            for (long at = begin; at < end; at++) {
+                write(at, it.next());
+            }
+            remaining -= count;
+            last = end - 1;
+        }
+        checkHigh(last, head);
+    }
+
+    @Override
+    public void publish(Object obj) {
+        checkSupported(obj);
+        final long seq = _tail.getAndIncrement();
+        final long head = waitForCapacity(seq);
+        write(seq, obj);
+        checkHigh(seq, head);
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        checkSupported(obj);
+        long seq;
+        long head;
+        do {
+            seq = _tail.get();
+            head = _head.get();
+            if (seq - head >= _capacity) {
+                throw InsufficientCapacityException.INSTANCE;
+            }
+        } while (!_tail.compareAndSet(seq, seq + 1));
+        write(seq, obj);
+        checkHigh(seq, head);
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        Scratch scratch = _scratch.get();
+        if (scratch._owner != translator) {
+            scratch._event = translator.newInstance();
+            scratch._owner = translator;
+        }
+        T event = (T)scratch._event;
+        translator.translateTo(event, -1, arg);
+        publish(event);
+    }
+
+    public long population() {
+        return _tail.get() - _head.get();
+    }
+
+    public long capacity() {
+        return _capacity;
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        //Every record is decoded into the same event
+        return true;
+    }
+
+    @Override
+    public void close() {
+        //NOOP the direct buffer is freed when this is collected
+    }
+}
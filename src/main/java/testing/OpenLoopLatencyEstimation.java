@@ -0,0 +1,102 @@
+package testing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Turns any test into an open loop one.  Every getStart call, from whichever sender,
+ * takes the next slot of a fixed rate schedule and waits for it, and the start it returns
+ * is when the event was meant to be sent, not when it was.  If a stalled queue holds a
+ * sender up, the events behind it are still charged from their scheduled times, so the
+ * stall shows up in the latency instead of hiding itself (coordinated omission).
+ *
+ * Iterations the wrapped estimation does not stamp, a start of 0, are still paced.
+ * How far behind schedule the senders fell is reported in TestStats as open-loop.max-behind-ns.
+ */
+public class OpenLoopLatencyEstimation implements LatencyEstimation {
+    //Park until this close to the send time and spin the rest of the way
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final LatencyEstimation _delegate;
+    private final double _intervalNanos;
+    private final AtomicLong _tickets = new AtomicLong(0);
+    private final AtomicLong _base = new AtomicLong(0);
+    private final AtomicLong _maxBehind;
+
+    /**
+     * @param eventsPerSecond the rate events are scheduled at, over all of the senders.
+     */
+    public OpenLoopLatencyEstimation(LatencyEstimation delegate, double eventsPerSecond) {
+        if (eventsPerSecond <= 0) {
+            throw new IllegalArgumentException("The rate has to be positive, not " + eventsPerSecond);
+        }
+        _delegate = delegate;
+        _intervalNanos = TimeUnit.SECONDS.toNanos(1) / eventsPerSecond;
+        _maxBehind = TestStats.counter("open-loop.max-behind-ns");
+    }
+
+    private long base() {
+        long base = _base.get();
+        if (base == 0) {
+            //The schedule starts with the first event sent
+            _base.compareAndSet(0, System.nanoTime());
+            base = _base.get();
+        }
+        return base;
+    }
+
+    //@return the time the event was scheduled for, once that time has come
+    private long awaitSlot() {
+        final long ticket = _tickets.getAndIncrement();
+        final long intended = base() + (long)(ticket * _intervalNanos);
+        long remaining = intended - System.nanoTime();
+        if (remaining < 0) {
+            long behind = -remaining;
+            long max = _maxBehind.get();
+            while (behind > max && !_maxBehind.compareAndSet(max, behind)) {
+                max = _maxBehind.get();
+            }
+        }
+        while (remaining > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            }
+            remaining = intended - System.nanoTime();
+        }
+        return intended;
+    }
+
+    public long getStart(int iteration) {
+        final long intended = awaitSlot();
+        return _delegate.getStart(iteration) == 0 ? 0l : intended;
+    }
+
+    public void recordLatency(int iteration, long start) {
+        _delegate.recordLatency(iteration, start);
+    }
+
+    public double getMin() {
+        return _delegate.getMin();
+    }
+
+    public double get50th() {
+        return _delegate.get50th();
+    }
+
+    public double get90th() {
+        return _delegate.get90th();
+    }
+
+    public double get99th() {
+        return _delegate.get99th();
+    }
+
+    public double getMax() {
+        return _delegate.getMax();
+    }
+
+    public String toString() {
+        return _delegate.toString();
+    }
+}
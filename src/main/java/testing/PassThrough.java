@@ -6,14 +6,36 @@ import java.util.concurrent.CountDownLatch;
 
 public class PassThrough extends EventThread<TestData> {
     private Q _output;
+    //Only copy when the input may reuse an event once we return
+    private final boolean _copy;
 
     public PassThrough(CountDownLatch startSignal, CountDownLatch doneSignal, Q input, Q output) {
         super(startSignal, doneSignal, input, 1);
         _output = output;
+        _copy = input.reusesSlots();
     }
 
     @Override
     public void onEvent(TestData event) throws Exception {
-        _output.publish(event);
+        if (_copy) {
+            _output.publishEvent(TestData.TRANSLATOR, event);
+        } else {
+            _output.publish(event);
+        }
+    }
+
+    @Override
+    public void onEvents(Object[] events, int offset, int length) {
+        final Q output = _output;
+        final int end = offset + length;
+        if (_copy) {
+            for (int i = offset; i < end; i++) {
+                output.publishEvent(TestData.TRANSLATOR, (TestData)events[i]);
+            }
+        } else {
+            for (int i = offset; i < end; i++) {
+                output.publish(events[i]);
+            }
+        }
     }
 }
@@ -13,8 +13,15 @@ public class PctEstimation {
         _offset = -1;
     }
 
+    /**
+     * @return true if a value recorded for iteration would be kept.
+     */
+    public boolean isSampled(int iteration) {
+        return (iteration  & 0xFFFF) < _cuttoff;
+    }
+
     public void recordValue(int iteration, double value) {
-        if ((iteration  & 0xFFFF) < _cuttoff) {
+        if (isSampled(iteration)) {
             int myOffset = ++_offset;
             if (myOffset < _data.length) {
                 _data[myOffset] = value;
@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Collection;
+
+//Old Code for compatability reasons
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * A fan in queue that gives every publishing thread its own private SPSC lane, so producers
+ * never touch a shared cursor.  Lanes are created lazily the first time a thread publishes.
+ * The consumer visits the lanes round robin, taking at most batchCap events from each lane
+ * per visit so one busy producer cannot starve the others.
+ *
+ * The price is memory: every producer thread gets a full ring of its own.
+ * Q.batch-size is ignored, a lane must only ever be published to by the thread that owns it.
+ */
+public class PerProducerLaneQ implements Q, Watermarks.Gauge {
+    private static final String PREFIX = "lanes-";
+
+    private final int _laneSize;
+    private final int _batchCap;
+    private final int _spinTries;
+    private final String _queueName;
+    private final Watermarks _watermarks = new Watermarks(this);
+    private final ThreadLocal<SpscArrayQ> _localLane = new ThreadLocal<SpscArrayQ>();
+    private volatile SpscArrayQ[] _lanes = new SpscArrayQ[0];
+    private int _nextLane = 0;
+
+    public static PerProducerLaneQ make(String name, int size, Map<String, String> conf) {
+        int laneSize = Q.getInt(conf, "Q.lanes.lane-size", size);
+        int batchCap = Q.getInt(conf, "Q.lanes.batch-cap", 256);
+        int spin = Q.getInt(conf, "Q.lanes.spin", 100);
+        return new PerProducerLaneQ(name, Q.roundUpToNextPowerOfTwo(laneSize), batchCap, spin);
+    }
+
+    public PerProducerLaneQ(String queueName, int laneSize, int batchCap, int spinTries) {
+        _queueName = PREFIX + queueName;
+        _laneSize = laneSize;
+        _batchCap = Math.max(batchCap, 1);
+        _spinTries = Math.max(spinTries, 0);
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+        return _queueName;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private SpscArrayQ getLane() {
+        SpscArrayQ lane = _localLane.get();
+        if (lane == null) {
+            lane = addLane();
+            _localLane.set(lane);
+        }
+        return lane;
+    }
+
+    private synchronized SpscArrayQ addLane() {
+        SpscArrayQ[] lanes = _lanes;
+        SpscArrayQ lane = new SpscArrayQ(_queueName + "-" + lanes.length, _laneSize, 0);
+        SpscArrayQ[] updated = Arrays.copyOf(lanes, lanes.length + 1);
+        updated[lanes.length] = lane;
+        _lanes = updated;
+        return lane;
+    }
+
+    private int consumeRound(EventHandler<Object> handler) {
+        return consumeRound(handler, Integer.MAX_VALUE);
+    }
+
+    //Takes at most max events in total from all of the lanes
+    private int consumeRound(EventHandler<Object> handler, int max) {
+        final SpscArrayQ[] lanes = _lanes;
+        final int numLanes = lanes.length;
+        int consumed = 0;
+        for (int i = 0; i < numLanes && consumed < max; i++) {
+            if (_nextLane >= numLanes) {
+                _nextLane = 0;
+            }
+            consumed += lanes[_nextLane++].consume(handler, Math.min(_batchCap, max - consumed));
+        }
+        return consumed;
+    }
+
+    private int consumeRound(BatchHandler handler) {
+        final SpscArrayQ[] lanes = _lanes;
+        final int numLanes = lanes.length;
+        int consumed = 0;
+        for (int i = 0; i < numLanes; i++) {
+            if (_nextLane >= numLanes) {
+                _nextLane = 0;
+            }
+            consumed += lanes[_nextLane++].consume(handler, _batchCap);
+        }
+        return consumed;
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        consumeRound(handler);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        consumeRound(handler, max);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consumeRound(handler) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consumeRound(handler) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        getLane().publish(objs);
+        _watermarks.checkHigh();
+    }
+
+    @Override
+    public void publish(Object obj) {
+        getLane().publish(obj);
+        _watermarks.checkHigh();
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        getLane().tryPublish(obj);
+        _watermarks.checkHigh();
+    }
+
+    public int numLanes() {
+        return _lanes.length;
+    }
+
+    public long population() {
+        long ret = 0;
+        for (SpscArrayQ lane: _lanes) {
+            ret += lane.population();
+        }
+        return ret;
+    }
+
+    //Grows as producers show up, one full lane each
+    public long capacity() {
+        return ((long) _lanes.length) * _laneSize;
+    }
+
+    @Override
+    public void close() {
+        //NOOP
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * Puts a small high priority control lane in front of a data queue, so control messages,
+ * like ticks or flush signals, do not have to wait behind the whole data backlog.
+ *
+ * The consumer drains the control lane before every data batch, and takes at most batchCap
+ * data events at a time, so a control message waits for at most one batch however far
+ * behind the data is.  Anything published through the Q interface goes to the data queue,
+ * only publishControl and tryPublishControl use the control lane.  The control lane takes
+ * any number of producers and is never throttled, watermarks only apply to the data.
+ *
+ * The consumer does not use the data queue's own wait, it would not notice control messages
+ * while blocked in it.  Instead it parks once both are empty and every publish wakes it up,
+ * the same way WakeupQ does, with a 1 ms safety net for anything it missed.
+ *
+ * Control messages consumed are counted in TestStats as priority.NAME.control.
+ */
+public class PriorityQ implements Q {
+    //Only a safety net, normally a publisher wakes us up
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Counts what was handed to the consumer.  The consumer is a single thread so one of
+     * these is reused for every call.
+     */
+    private static class CountingHandler implements EventHandler<Object> {
+        private EventHandler<Object> _delegate;
+        private int _count;
+
+        @Override
+        public void onEvent(Object event, long sequence, boolean endOfBatch) throws Exception {
+            _count++;
+            _delegate.onEvent(event, sequence, endOfBatch);
+        }
+    }
+
+    private final Q _data;
+    private final MpscArrayQ _control;
+    private final int _batchCap;
+    private final WakeupQ.Signal _signal = new WakeupQ.Signal();
+    private final CountingHandler _counting = new CountingHandler();
+    private final AtomicLong _controlConsumed;
+
+    public static PriorityQ make(Q data, Map<String, String> conf) {
+        int size = Q.getInt(conf, "Q.control.size", 64);
+        int batchCap = Q.getInt(conf, "Q.control.batch-cap", 256);
+        return new PriorityQ(data, Q.roundUpToNextPowerOfTwo(size), batchCap);
+    }
+
+    /**
+     * @param data the queue for everything but control messages.
+     * @param controlSize how many control messages can be outstanding, a power of 2.
+     * @param batchCap the most data events consumed between two looks at the control lane.
+     */
+    public PriorityQ(Q data, int controlSize, int batchCap) {
+        _data = data;
+        _control = new MpscArrayQ("CONTROL_" + data.getName(), controlSize, 0);
+        _batchCap = Math.max(batchCap, 1);
+        _controlConsumed = TestStats.counter("priority." + data.getName() + ".control");
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _data.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _data.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _data.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+      return "PRIORITY_"+_data.getName();
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+
+    //@return how many events q handed to handler, at most max
+    private int consumeCounted(Q q, EventHandler<Object> handler, int max) {
+        _counting._delegate = handler;
+        _counting._count = 0;
+        q.consumeBatch(_counting, max);
+        return _counting._count;
+    }
+
+    //@return how many events were consumed, control first and then at most max in total
+    private int poll(EventHandler<Object> handler, int max) {
+        int control = consumeCounted(_control, handler, max);
+        if (control > 0) {
+            _controlConsumed.addAndGet(control);
+        }
+        if (control >= max) {
+            return control;
+        }
+        return control + consumeCounted(_data, handler, Math.min(_batchCap, max - control));
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        poll(handler, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        poll(handler, max);
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        if (poll(handler, Integer.MAX_VALUE) > 0) {
+            return;
+        }
+        _signal.prepareToSleep();
+        if (poll(handler, Integer.MAX_VALUE) > 0) {
+            _signal.cancelSleep();
+        } else {
+            _signal.sleep(MAX_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Publish a control message, it is handed to the consumer ahead of any data that is
+     * waiting.  This blocks if the control lane is full.
+     */
+    public void publishControl(Object obj) {
+        _control.publish(obj);
+        _signal.wake();
+    }
+
+    public void tryPublishControl(Object obj) throws InsufficientCapacityException {
+        _control.tryPublish(obj);
+        _signal.wake();
+    }
+
+    @Override
+    public void publish(Object obj) {
+        _data.publish(obj);
+        _signal.wake();
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        _data.publish(objs);
+        _signal.wake();
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        _data.publishEvent(translator, arg);
+        _signal.wake();
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        _data.tryPublish(obj);
+        _signal.wake();
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        return _data.reusesSlots();
+    }
+
+    @Override
+    public void close() {
+        _control.close();
+        _data.close();
+    }
+}
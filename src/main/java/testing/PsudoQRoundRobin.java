@@ -14,24 +14,7 @@ public class PsudoQRoundRobin implements Test {
     private ArrayList<Q> _q;
     private LatencyEstimation _lat;
     private int _numThreads;
-    private volatile boolean throttle = false;
-
-    private class CB implements BpCb {
-        public void highWaterMark() {
-            check();
-        }
-
-        public void check() {
-            boolean tmp = false;
-            for (Q q: _q) {
-                tmp = tmp || q.isThrottled();
-            }
-        }
-
-        public void lowWaterMark() {
-            check();
-        }
-    }
+    private ThrottleGate _gate;
 
     public PsudoQRoundRobin(int threads) {
         _numThreads = threads;
@@ -44,7 +27,7 @@ public class PsudoQRoundRobin implements Test {
 
     @Override
     public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
-        CB cb = new CB();
+        _gate = new ThrottleGate(conf);
         _doneSignal = new CountDownLatch(_numThreads);
         _startSignal = new CountDownLatch(1);
         _lat = lat;
@@ -54,9 +37,10 @@ public class PsudoQRoundRobin implements Test {
         //This is where we know the number of iterations so allocate the buffers here first
         for (int i = 0; i < _numThreads; i++) {
             Q q = Q.make("Q_"+i, conf, iterations);
-            q.register(cb);
+            _gate.watch(q);
             _q.add(q);
             Consumer c = new Consumer(_startSignal, _doneSignal, q, _lat, 1);
+            c.configure(conf);
             _threads.add(c);
             c.start();
         }
@@ -64,12 +48,12 @@ public class PsudoQRoundRobin implements Test {
 
     @Override
     public void runTest(int iterations) throws Exception {
+        TestData data = new TestData(0, 0l, false);
         for (int i = 0; i < iterations; i++) {
-            while (throttle) {
-                Thread.sleep(1);
-            }
-            long start = _lat.getStart(i);
-            _q.get(i % _q.size()).publish(new TestData(i, start, false));
+            _gate.await();
+            data.iteration = i;
+            data.start = _lat.getStart(i);
+            _q.get(i % _q.size()).publishEvent(TestData.TRANSLATOR, data);
         }
 
         for (Q q: _q) {
@@ -30,13 +30,69 @@ public interface Q {
     public String getName();
     public void consumeBatch(EventHandler<Object> handler);
     public void consumeBatchWhenAvailable(EventHandler<Object> handler);
+
+    /**
+     * Like consumeBatch, but hand at most max events to handler, so one busy queue cannot hog
+     * a consumer that serves several.  Queues that cannot stop part way through a batch ignore
+     * max, which is the default.
+     */
+    public default void consumeBatch(EventHandler<Object> handler, int max) {
+        consumeBatch(handler);
+    }
     public void publish(Object obj);
     public void publish(Collection<Object> obj);
     public void tryPublish(Object obj) throws InsufficientCapacityException;
+
+    /**
+     * Like consumeBatchWhenAvailable, but everything available is handed to handler in as few
+     * calls as possible.  Queues that keep their events in an array override this to hand over
+     * slices of it, by default the events are collected with a BatchCollector.
+     */
+    public default void consumeSliceWhenAvailable(BatchHandler handler) {
+        BatchCollector collector = BatchCollector.get(handler);
+        consumeBatchWhenAvailable(collector);
+        collector.finish();
+    }
+
+    /**
+     * Publish an event by having translator fill it in from arg.  Queues that can reuse their
+     * slots override this so nothing is allocated, by default a new event is allocated and
+     * published like any other object.
+     */
+    public default <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        T event = translator.newInstance();
+        translator.translateTo(event, -1, arg);
+        publish(event);
+    }
+
+    /**
+     * @return true if the events handed to a consumer belong to the queue and may be reused
+     * once the handler returns, like the slots filled in by publishEvent, so anything kept or
+     * passed on has to be copied.  By default the consumer gets what was published.
+     */
+    public default boolean reusesSlots() {
+        return false;
+    }
+
     public void close();
     public void register(BpCb cb);
     public boolean isThrottled();
 
+    /**
+     * Have cb told about every event this Q drops instead of delivering it.  Queues that
+     * never drop anything ignore it, which is the default.
+     */
+    public default void registerDropped(DropCb cb) {
+        //Ignored
+    }
+
+    /**
+     * Set the high and low watermarks for backpressure as fractions of the capacity.
+     */
+    public default void setWatermarks(double high, double low) {
+        //Ignored
+    }
+
     public static int getInt(Map<String, String> conf, String name, int defaultValue) {
         String tmp = conf.get(name);
         if (tmp != null) return Integer.valueOf(tmp);
@@ -49,6 +105,12 @@ public interface Q {
         return defaultValue;
     }
 
+    public static double getDouble(Map<String, String> conf, String name, double defaultValue) {
+        String tmp = conf.get(name);
+        if (tmp != null) return Double.valueOf(tmp);
+        return defaultValue;
+    }
+
     static int roundUpToNextPowerOfTwo(int x) {
         x--;
         x |= x >> 1;  // handle  2 bit numbers
@@ -87,14 +149,28 @@ public interface Q {
         } else if ("nb-disruptor-latest".equalsIgnoreCase(type)) {
             ret = NBLatestDisruptorQ.make(name, size, batchSize, conf);
             externalBatch = false;
+        } else if ("spsc".equalsIgnoreCase(type)) {
+            ret = SpscArrayQ.make(name, size, conf);
+        } else if ("mpsc".equalsIgnoreCase(type)) {
+            ret = MpscArrayQ.make(name, size, conf);
+        } else if ("lanes".equalsIgnoreCase(type)) {
+            ret = PerProducerLaneQ.make(name, size, conf);
+            //Lanes are picked by the publishing thread, a lingering batch flushed by the
+            //FlushScheduler would land in the wrong lane and could overtake earlier events
+            externalBatch = false;
+        } else if ("offheap".equalsIgnoreCase(type)) {
+            ret = OffHeapStructQ.make(name, size, conf);
         } else if (type == null || "disruptor".equalsIgnoreCase(type)) {
             ret = DisruptorQueue.make(name, size, conf);
         } else {
-            throw new IllegalArgumentException(type+" is not a supported Q type. [\"storm\", \"disruptor\", \"disruptor-latest\", \"java-array\", \"java-linked\", \"nb-disruptor-latest\"]");
+            throw new IllegalArgumentException(type+" is not a supported Q type. [\"storm\", \"disruptor\", \"disruptor-latest\", \"java-array\", \"java-linked\", \"nb-disruptor-latest\", \"spsc\", \"mpsc\", \"lanes\", \"offheap\"]");
         }
 
+        ret.setWatermarks(getDouble(conf, "Q.backpressure.high", 0.9), getDouble(conf, "Q.backpressure.low", 0.4));
+        ret = SheddingQ.make(ret, conf);
+
         if (externalBatch) {
-            ret = new InputBatchingQ(ret, batchSize);
+            ret = InputBatchingQ.make(ret, batchSize, conf);
         }
 
         return ret;
@@ -0,0 +1,124 @@
+package testing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.Map;
+
+public class QBroadcast implements Test {
+    private ArrayList<Thread> _threads;
+    private CountDownLatch _doneSignal;
+    private CountDownLatch _startSignal;
+    private ArrayList<Q> _q;
+    private LatencyEstimation _lat;
+    private int _numRecvThreads;
+    private boolean _copy;
+    private ThrottleGate _gate;
+
+    /**
+     * Every consumer sees every event, but each event's latency is only recorded once, by
+     * the consumer whose turn it is, so the samples are spread evenly over the consumers.
+     */
+    private static class Receiver extends EventThread<TestData> {
+        private final LatencyEstimation _lat;
+        private final int _index;
+        private final int _numReceivers;
+
+        public Receiver(CountDownLatch startSignal, CountDownLatch doneSignal, Q input, LatencyEstimation lat, int index, int numReceivers) {
+            super(startSignal, doneSignal, input, 1);
+            _lat = lat;
+            _index = index;
+            _numReceivers = numReceivers;
+        }
+
+        @Override
+        public void onEvent(TestData data) throws Exception {
+            if (!data.allDone && data.iteration % _numReceivers == _index) {
+                _lat.recordLatency(data.iteration, data.start);
+            }
+        }
+    }
+
+    /**
+     * @param recvT the number of consumers every event goes to.
+     * @param copy true to publish a copy to a separate Q per consumer, false to publish once
+     * to a BroadcastDisruptorQ that they all read.
+     */
+    public QBroadcast(int recvT, boolean copy) {
+        _numRecvThreads = recvT;
+        _copy = copy;
+    }
+
+    @Override
+    public String description() {
+        if (_copy) {
+            return "Sends every event to "+_numRecvThreads+" threads by publishing a copy to each of their Qs";
+        }
+        return "Sends every event to "+_numRecvThreads+" threads through one broadcast disruptor ring";
+    }
+
+    @Override
+    public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
+        _gate = new ThrottleGate(conf);
+        _doneSignal = new CountDownLatch(_numRecvThreads);
+        _startSignal = new CountDownLatch(1);
+        _lat = lat;
+        _q = new ArrayList<Q>(_numRecvThreads);
+        _threads = new ArrayList<Thread>(_numRecvThreads);
+
+        BroadcastDisruptorQ bcast = null;
+        if (!_copy) {
+            bcast = BroadcastDisruptorQ.make("Q_BCAST", _numRecvThreads, conf);
+            _gate.watch(bcast);
+            _q.add(bcast);
+        }
+        for (int i = 0; i < _numRecvThreads; i++) {
+            Q input;
+            if (_copy) {
+                input = Q.make("Q_"+i, conf);
+                _gate.watch(input);
+                _q.add(input);
+            } else {
+                input = bcast.reader(i);
+            }
+            Receiver r = new Receiver(_startSignal, _doneSignal, input, _lat, i, _numRecvThreads);
+            r.configure(conf);
+            _threads.add(r);
+            r.start();
+        }
+    }
+
+    @Override
+    public void runTest(int iterations) throws Exception {
+        _startSignal.countDown();
+        ArrayList<Q> qs = _q;
+        int numQs = qs.size();
+        LatencyEstimation lat = _lat;
+        TestData data = new TestData(0, 0l, false);
+        for (int i = 1; i <= iterations; i++) {
+            _gate.await();
+            data.iteration = i;
+            data.start = lat.getStart(i);
+            for (int j = 0; j < numQs; j++) {
+                qs.get(j).publishEvent(TestData.TRANSLATOR, data);
+            }
+        }
+        for (Q q: qs) {
+            q.publish(new TestData(-1, 0l, true));
+        }
+        _doneSignal.await();
+    }
+
+    @Override
+    public void cleanup() throws Exception {
+        for (Thread t: _threads) {
+            if (t.isAlive()) {
+                t.interrupt();
+                t.join();
+            }
+        }
+
+        for (Q q: _q) {
+            q.close();
+        }
+    }
+}
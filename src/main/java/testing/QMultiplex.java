@@ -0,0 +1,129 @@
+package testing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.Map;
+
+public class QMultiplex implements Test {
+    private ArrayList<Thread> _threads;
+    private CountDownLatch _doneSignal;
+    private CountDownLatch _startSignal;
+    private ArrayList<Q> _q;
+    private LatencyEstimation _lat;
+    private int _executors;
+    private int _threadCount;
+    private ThrottleGate _gate;
+
+    private static class Executors extends MultiInputEventThread<TestData> {
+        private LatencyEstimation _lat;
+
+        public Executors(CountDownLatch startSignal, CountDownLatch doneSignal, ArrayList<Q> inputs, WakeupQ.Signal wakeup, int batchCap, LatencyEstimation lat) {
+            super(startSignal, doneSignal, inputs, wakeup, batchCap, inputs.size());
+            _lat = lat;
+        }
+
+        @Override
+        public void onEvent(int input, TestData data) throws Exception {
+            if (!data.allDone) {
+                _lat.recordLatency(data.iteration, data.start);
+            }
+        }
+    }
+
+    /**
+     * @param executors how many executors, each with its own input Q, the events are sent to.
+     * @param threads how many threads to run them on, one thread per executor if this is not
+     * less than executors.
+     */
+    public QMultiplex(int executors, int threads) {
+        _executors = executors;
+        _threadCount = threads;
+    }
+
+    private boolean isMultiplexed() {
+        return _threadCount < _executors;
+    }
+
+    @Override
+    public String description() {
+        if (isMultiplexed()) {
+            return "Sends events round robin to "+_executors+" executors run on "+_threadCount+" threads";
+        }
+        return "Sends events round robin to "+_executors+" executors each with its own thread";
+    }
+
+    @Override
+    public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
+        _gate = new ThrottleGate(conf);
+        _lat = lat;
+        _q = new ArrayList<Q>(_executors);
+        _threads = new ArrayList<Thread>();
+        _startSignal = new CountDownLatch(1);
+
+        if (isMultiplexed()) {
+            int batchCap = Q.getInt(conf, "MultiInputEventThread.batch-cap", 64);
+            _doneSignal = new CountDownLatch(_threadCount);
+            ArrayList<ArrayList<Q>> inputs = new ArrayList<ArrayList<Q>>(_threadCount);
+            ArrayList<WakeupQ.Signal> signals = new ArrayList<WakeupQ.Signal>(_threadCount);
+            for (int i = 0; i < _threadCount; i++) {
+                inputs.add(new ArrayList<Q>());
+                signals.add(new WakeupQ.Signal());
+            }
+            for (int i = 0; i < _executors; i++) {
+                Q q = new WakeupQ(Q.make("Q_EXEC_"+i, conf), signals.get(i % _threadCount));
+                _gate.watch(q);
+                _q.add(q);
+                inputs.get(i % _threadCount).add(q);
+            }
+            for (int i = 0; i < _threadCount; i++) {
+                Executors e = new Executors(_startSignal, _doneSignal, inputs.get(i), signals.get(i), batchCap, _lat);
+                _threads.add(e);
+                e.start();
+            }
+        } else {
+            _doneSignal = new CountDownLatch(_executors);
+            for (int i = 0; i < _executors; i++) {
+                Q q = Q.make("Q_EXEC_"+i, conf);
+                _gate.watch(q);
+                _q.add(q);
+                Consumer c = new Consumer(_startSignal, _doneSignal, q, _lat, 1);
+                c.configure(conf);
+                _threads.add(c);
+                c.start();
+            }
+        }
+    }
+
+    @Override
+    public void runTest(int iterations) throws Exception {
+        _startSignal.countDown();
+        LatencyEstimation lat = _lat;
+        ArrayList<Q> qs = _q;
+        int numQs = qs.size();
+        TestData data = new TestData(0, 0l, false);
+        for (int i = 1; i <= iterations; i++) {
+            _gate.await();
+            data.iteration = i;
+            data.start = lat.getStart(i);
+            qs.get(i % numQs).publishEvent(TestData.TRANSLATOR, data);
+        }
+        for (Q q: qs) {
+            q.publish(new TestData(-1, 0l, true));
+        }
+        _doneSignal.await();
+    }
+
+    @Override
+    public void cleanup() throws Exception {
+        for (Thread t: _threads) {
+            if (t.isAlive()) {
+                t.interrupt();
+                t.join();
+            }
+        }
+
+        for (Q q: _q) {
+            q.close();
+        }
+    }
+}
@@ -14,7 +14,7 @@ public class QPipeline implements Test {
     private ArrayList<Q> _q;
     private LatencyEstimation _lat;
     private int _depth;
-    private volatile boolean throttle = false;
+    private ThrottleGate _gate;
 
     public QPipeline(int depth) {
         _depth = depth;
@@ -25,46 +25,36 @@ public class QPipeline implements Test {
         return "Sends events through a pipeline "+_depth+" deep.";
     }
 
-    private class CB implements BpCb {
-        public void highWaterMark() {
-            check();
-        }
-
-        public void check() {
-            boolean tmp = false;
-            for (Q q: _q) {
-                tmp = tmp || q.isThrottled();
-            }
-        }
-
-        public void lowWaterMark() {
-            check();
-        }
-    }
-
     @Override
     public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
-        CB cb = new CB();
+        _gate = new ThrottleGate(conf);
         _doneSignal = new CountDownLatch(_depth);
         _startSignal = new CountDownLatch(1);
         _lat = lat;
         _q = new ArrayList<Q>(_depth - 1);
         _threads = new ArrayList<Thread>(_depth - 1);
+        boolean creditFlow = Test.isCreditFlow(conf);
 
         Q previous = null;
         for (int i = 0; i < _depth+1; i++) {
             Q current = null;
             if (i != _depth) {
                 current = Q.make("Q_"+i, conf);
-                current.register(cb);
+                if (creditFlow) {
+                    current = CreditQ.make(current, conf);
+                } else {
+                    _gate.watch(current);
+                }
                 _q.add(current);
             }
             if (i == _depth) {
                 Consumer c = new Consumer(_startSignal, _doneSignal, previous, _lat, 1);
+                c.configure(conf);
                 _threads.add(c);
                 c.start();
             } else if (previous != null) {
                 PassThrough p = new PassThrough(_startSignal, _doneSignal, previous, current);
+                p.configure(conf);
                 _threads.add(p);
                 p.start();
             }
@@ -77,12 +67,12 @@ public class QPipeline implements Test {
         _startSignal.countDown();
         Q q = _q.get(0);
         LatencyEstimation lat = _lat;
+        TestData data = new TestData(0, 0l, false);
         for (int i = 1; i <= iterations; i++) {
-            while (throttle) {
-                Thread.sleep(1);
-            }
-            long start = lat.getStart(i);
-            q.publish(new TestData(i, start, false));
+            _gate.await();
+            data.iteration = i;
+            data.start = lat.getStart(i);
+            q.publishEvent(TestData.TRANSLATOR, data);
         }
         q.publish(new TestData(-1, 0l, true));
         _doneSignal.await();
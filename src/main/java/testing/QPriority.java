@@ -0,0 +1,180 @@
+package testing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.ArrayList;
+import java.util.Map;
+
+public class QPriority implements Test {
+    private ArrayList<Thread> _threads;
+    private CountDownLatch _doneSignal;
+    private CountDownLatch _startSignal;
+    private Q _q;
+    private LatencyEstimation _lat;
+    private HdrLatencyEstimationImpl _tickLat;
+    private Ticker _ticker;
+    private boolean _controlLane;
+    private ThrottleGate _gate;
+
+    /**
+     * Ticks are TestData with a negative iteration that is not allDone, stamped with the
+     * time they were sent.
+     */
+    private static boolean isTick(TestData data) {
+        return data.iteration < 0 && !data.allDone;
+    }
+
+    private class Ticker extends Thread {
+        private final long _periodNanos;
+        private volatile boolean _stopped = false;
+        private long _ticks = 0;
+
+        public Ticker(long periodNanos) {
+            super("ticker");
+            _periodNanos = periodNanos;
+        }
+
+        private void tick() {
+            TestData tick = new TestData(-1, System.nanoTime(), false);
+            if (_controlLane) {
+                ((PriorityQ)_q).publishControl(tick);
+            } else {
+                _q.publish(tick);
+            }
+            _ticks++;
+        }
+
+        @Override
+        public void run() {
+            try {
+                _startSignal.await();
+                long next = System.nanoTime() + _periodNanos;
+                while (!_stopped && !isInterrupted()) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        tick();
+                        next += _periodNanos;
+                    }
+                }
+            } catch (InterruptedException e) {
+                //Done
+            }
+        }
+
+        public long finish() throws InterruptedException {
+            _stopped = true;
+            join();
+            return _ticks;
+        }
+    }
+
+    private static class TickConsumer extends EventThread<TestData> {
+        private final LatencyEstimation _lat;
+        private final LatencyEstimation _tickLat;
+        private final long _workNanos;
+
+        public TickConsumer(CountDownLatch startSignal, CountDownLatch doneSignal, Q input, LatencyEstimation lat, LatencyEstimation tickLat, long workNanos) {
+            super(startSignal, doneSignal, input, 1);
+            _lat = lat;
+            _tickLat = tickLat;
+            _workNanos = workNanos;
+        }
+
+        @Override
+        public void onEvent(TestData data) throws Exception {
+            if (isTick(data)) {
+                _tickLat.recordLatency(data.iteration, data.start);
+            } else if (!data.allDone) {
+                //Stand in for real work so the data queue backs up
+                if (_workNanos > 0) {
+                    long until = System.nanoTime() + _workNanos;
+                    while (System.nanoTime() < until) {
+                        //Spin
+                    }
+                }
+                _lat.recordLatency(data.iteration, data.start);
+            }
+        }
+    }
+
+    /**
+     * @param controlLane true to send the ticks through a PriorityQ control lane, false to
+     * send them through the data queue like everything else.
+     */
+    public QPriority(boolean controlLane) {
+        _controlLane = controlLane;
+    }
+
+    @Override
+    public String description() {
+        if (_controlLane) {
+            return "Sends events to a saturated consumer, with timer ticks on a separate control lane.";
+        }
+        return "Sends events to a saturated consumer, with timer ticks queued behind the data (needs a multi producer Q).";
+    }
+
+    @Override
+    public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
+        _gate = new ThrottleGate(conf);
+        _doneSignal = new CountDownLatch(1);
+        _startSignal = new CountDownLatch(1);
+        _lat = lat;
+        _tickLat = new HdrLatencyEstimationImpl();
+        _threads = new ArrayList<Thread>();
+
+        _q = Q.make("Q_DATA", conf);
+        if (_controlLane) {
+            _q = PriorityQ.make(_q, conf);
+        }
+        _gate.watch(_q);
+        long workNanos = Q.getLong(conf, "QPriority.work-ns", 200);
+        TickConsumer c = new TickConsumer(_startSignal, _doneSignal, _q, _lat, _tickLat, workNanos);
+        c.configure(conf);
+        _threads.add(c);
+        c.start();
+
+        long periodNanos = TimeUnit.MICROSECONDS.toNanos(Q.getLong(conf, "QPriority.tick-us", 1000));
+        _ticker = new Ticker(periodNanos);
+        _threads.add(_ticker);
+        _ticker.start();
+    }
+
+    @Override
+    public void runTest(int iterations) throws Exception {
+        _startSignal.countDown();
+        Q q = _q;
+        LatencyEstimation lat = _lat;
+        TestData data = new TestData(0, 0l, false);
+        for (int i = 1; i <= iterations; i++) {
+            _gate.await();
+            data.iteration = i;
+            data.start = lat.getStart(i);
+            q.publishEvent(TestData.TRANSLATOR, data);
+        }
+        //No more ticks once allDone is sent or they might never be read
+        long ticks = _ticker.finish();
+        //allDone stays with the data, it must not overtake what is still queued
+        q.publish(new TestData(-1, 0l, true));
+        _doneSignal.await();
+
+        TestStats.counter("tick.count").set(ticks);
+        TestStats.counter("tick.latency-50th-ns").set((long)_tickLat.get50th());
+        TestStats.counter("tick.latency-99th-ns").set((long)_tickLat.get99th());
+        TestStats.counter("tick.latency-max-ns").set((long)_tickLat.getMax());
+    }
+
+    @Override
+    public void cleanup() throws Exception {
+        for (Thread t: _threads) {
+            if (t.isAlive()) {
+                t.interrupt();
+                t.join();
+            }
+        }
+
+        _q.close();
+    }
+}
@@ -16,22 +16,38 @@ public class QRoundRobin implements Test {
     private int _numSendThreads;
     private int _numRecvThreads;
     private int _batchInsert;
-    private volatile boolean throttle = false;
-
-    private class CB implements BpCb {
-        public void highWaterMark() {
-            check();
+    private boolean _steal;
+    private ThrottleGate _gate;
+
+    /**
+     * A consumer that spins for workNanos on every event, to make some consumers slower
+     * than others.
+     */
+    private static class SlowConsumer extends Consumer {
+        private final long _workNanos;
+
+        public SlowConsumer(CountDownLatch startSignal, CountDownLatch doneSignal, Q input, LatencyEstimation lat, int numDoneMessages, long workNanos) {
+            super(startSignal, doneSignal, input, lat, numDoneMessages);
+            _workNanos = workNanos;
         }
 
-        public void check() {
-            boolean tmp = false;
-            for (Q q: _q) {
-                tmp = tmp || q.isThrottled();
+        private void work(int events) {
+            long until = System.nanoTime() + _workNanos * events;
+            while (System.nanoTime() < until) {
+                //Spin
             }
         }
 
-        public void lowWaterMark() {
-            check();
+        @Override
+        public void onEvent(TestData data) throws Exception {
+            work(1);
+            super.onEvent(data);
+        }
+
+        @Override
+        public void onEvents(Object[] events, int offset, int length) {
+            work(length);
+            super.onEvents(events, offset, length);
         }
     }
 
@@ -54,58 +70,91 @@ public class QRoundRobin implements Test {
 
         @Override
         public void run() {
+            long allocStart = AllocationMeter.threadAllocatedBytes();
             try {
                 final int batchInsert = _batchInsert;
                 final int iterations = _iterations;
+                final TestData data = new TestData(0, 0l, false);
                 _startSignal.await();
                 int iteration = 0;
                 for (int i = 0; i < (iterations/batchInsert) + 1; i++) {
                     for (int j = 0; j < batchInsert; j++) {
-                        while (throttle) {
-                            Thread.sleep(1);
-                        }
-                        long start = _lat.getStart(iteration);
-                        _q.get(i % _q.size()).publish(new TestData(iteration, start, false));
+                        _gate.await();
+                        data.iteration = iteration;
+                        data.start = _lat.getStart(iteration);
+                        _q.get(i % _q.size()).publishEvent(TestData.TRANSLATOR, data);
                         iteration++;
                     }
                 }
 
                 for (Q q: _q) {
-                    q.publish(new TestData(0, 0l, true));
+                    TestData done = new TestData(0, 0l, true);
+                    if (q instanceof WorkStealingQ.Lane) {
+                        //It has to reach this lane's own consumer, not whoever steals it
+                        ((WorkStealingQ.Lane)q).publishToOwner(done);
+                    } else {
+                        q.publish(done);
+                    }
                 }
              } catch (Exception e) {
                 throw new RuntimeException(e);
              } finally {
+                AllocationMeter.addSince(allocStart);
                 _doneSignal.countDown();
              }
         }
     }
 
     public QRoundRobin(int sendT, int recvT, int batchInsert) {
+        this(sendT, recvT, batchInsert, false);
+    }
+
+    /**
+     * @param steal true to send to the lanes of a WorkStealingQ, so consumers that run out
+     * of work take it from the others, false to give each consumer its own Q.
+     */
+    public QRoundRobin(int sendT, int recvT, int batchInsert, boolean steal) {
         _numSendThreads = sendT;
         _numRecvThreads = recvT;
         _batchInsert = batchInsert;
+        _steal = steal;
     }
 
     @Override
     public String description() {
+        if (_steal) {
+            return "Sends events round robin from "+ _numSendThreads +" to "+_numRecvThreads+" threads that steal work from each other";
+        }
         return "Sends events round robin from "+ _numSendThreads +" to "+_numRecvThreads+" threads";
     }
 
     @Override
     public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
-        CB cb = new CB();
+        _gate = new ThrottleGate(conf);
         _doneSignal = new CountDownLatch(_numSendThreads + _numRecvThreads);
         _startSignal = new CountDownLatch(1);
         _lat = lat;
         _q = new ArrayList<Q>(_numRecvThreads);
         _threads = new ArrayList<Thread>(_numSendThreads + _numRecvThreads);
 
+        //The first slow-consumers consumers take slow-ns longer for every event
+        long slowNanos = Q.getLong(conf, "QRoundRobin.slow-ns", 0);
+        int numSlow = Q.getInt(conf, "QRoundRobin.slow-consumers", 1);
+        WorkStealingQ pool = null;
+        if (_steal) {
+            pool = WorkStealingQ.make("Q", _numRecvThreads, conf);
+        }
         for (int i = 0; i < _numRecvThreads; i++) {
-            Q q = Q.make("Q_"+i, conf);
-            q.register(cb);
+            Q q = _steal ? pool.lane(i) : Q.make("Q_"+i, conf);
+            _gate.watch(q);
             _q.add(q);
-            Consumer c = new Consumer(_startSignal, _doneSignal, q, _lat, _numSendThreads);
+            Consumer c;
+            if (slowNanos > 0 && i < numSlow) {
+                c = new SlowConsumer(_startSignal, _doneSignal, q, _lat, _numSendThreads, slowNanos);
+            } else {
+                c = new Consumer(_startSignal, _doneSignal, q, _lat, _numSendThreads);
+            }
+            c.configure(conf);
             _threads.add(c);
             c.start();
         }
@@ -9,6 +9,22 @@ import java.util.Map;
 
 public class QStormWC implements Test {
     public static class WCMessage extends TestData {
+        public static final QTranslator<WCMessage, WCMessage> TRANSLATOR = new QTranslator<WCMessage, WCMessage>() {
+            @Override
+            public WCMessage newInstance() {
+                return new WCMessage(0, 0l, null, false, false);
+            }
+
+            @Override
+            public void translateTo(WCMessage event, long sequence, WCMessage arg) {
+                event.iteration = arg.iteration;
+                event.start = arg.start;
+                event.allDone = arg.allDone;
+                event.word = arg.word;
+                event.lastWord = arg.lastWord;
+            }
+        };
+
         String word;
         boolean lastWord;
 
@@ -29,27 +45,7 @@ public class QStormWC implements Test {
     private int _sendThreads;
     private int _splitThreads;
     private int _countThreads;
-    private volatile boolean throttle = false;
-
-    private class CB implements BpCb {
-        public void highWaterMark() {
-            check();
-        }
-
-        public void check() {
-            boolean tmp = false;
-            for (Q q: _toSplit) {
-                tmp = tmp || q.isThrottled();
-            }
-            for (Q q: _toCount) {
-                tmp = tmp || q.isThrottled();
-            }
-        }
-
-        public void lowWaterMark() {
-            check();
-        }
-    }
+    private ThrottleGate _gate;
 
     public QStormWC(int sendThreads, int splitThreads, int countThreads) {
         _sendThreads = sendThreads;
@@ -79,16 +75,19 @@ public class QStormWC implements Test {
 
         @Override
         public void run() {
+            long allocStart = AllocationMeter.threadAllocatedBytes();
             try {
                 final GenSentences gen = new GenSentences();
                 final int iterations = _iterations;
+                final WCMessage msg = new WCMessage(0, 0l, null, true, false);
                 _startSignal.await();
                 for (int i = 0; i < iterations; i++) {
-                    while (throttle) {
-                        Thread.sleep(1);
-                    }
-                    long start = _lat.getStart(i);
-                    _q.get(i % _q.size()).publish(new WCMessage(i, start, gen.getNext(), true, false));
+                    _gate.await();
+                    msg.iteration = i;
+                    msg.start = _lat.getStart(i);
+                    msg.word = gen.getNext();
+                    //Any splitter will do, so with credits go to one that has room
+                    CreditQ.publishEventRedirect(_q, i % _q.size(), WCMessage.TRANSLATOR, msg);
                 }
 
                 for (Q q: _q) {
@@ -97,6 +96,7 @@ public class QStormWC implements Test {
             } catch (Exception e) {
                 throw new RuntimeException(e);
             } finally {
+                AllocationMeter.addSince(allocStart);
                 _doneSignal.countDown();
             }
         }
@@ -104,6 +104,7 @@ public class QStormWC implements Test {
 
     private static class Splitter extends EventThread<WCMessage> {
         private ArrayList<Q> _output;
+        private final WCMessage _msg = new WCMessage(0, 0l, null, false, false);
 
         public Splitter(CountDownLatch startSignal, CountDownLatch doneSignal, Q input, ArrayList<Q> output, int senders) {
             super(startSignal, doneSignal, input, senders);
@@ -116,8 +117,13 @@ public class QStormWC implements Test {
                 return;
             }
             String [] words = data.word.split(" ");
+            final WCMessage msg = _msg;
+            msg.iteration = data.iteration;
+            msg.start = data.start;
             for (int j = 0; j < words.length; j++) {
-                _output.get(Math.abs(words[j].hashCode()) % _output.size()).publish(new WCMessage(data.iteration, data.start, words[j], j == words.length-1, false));
+                msg.word = words[j];
+                msg.lastWord = j == words.length-1;
+                _output.get(Math.abs(words[j].hashCode()) % _output.size()).publishEvent(WCMessage.TRANSLATOR, msg);
             }
         }
 
@@ -154,11 +160,29 @@ public class QStormWC implements Test {
                 _lat.recordLatency(data.iteration, data.start);
             }
         }
+
+        @Override
+        public void onEvents(Object[] events, int offset, int length) {
+            final HashMap<String, Integer> subCounts = _subCounts;
+            final LatencyEstimation lat = _lat;
+            final int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                WCMessage data = (WCMessage)events[i];
+                if (data.allDone) {
+                    continue;
+                }
+                Integer val = subCounts.get(data.word);
+                subCounts.put(data.word, val == null ? 1 : val + 1);
+                if (data.lastWord) {
+                    lat.recordLatency(data.iteration, data.start);
+                }
+            }
+        }
     }
 
     @Override
     public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
-        CB cb = new CB();
+        _gate = new ThrottleGate(conf);
         _counts = new ArrayList<HashMap<String, Integer>>();
         _doneSignal = new CountDownLatch(_countThreads + _sendThreads + _splitThreads);
         _startSignal = new CountDownLatch(1);
@@ -166,23 +190,34 @@ public class QStormWC implements Test {
         _toSplit = new ArrayList<Q>();
         _toCount = new ArrayList<Q>();
         _threads = new ArrayList<Thread>();
+        boolean creditFlow = Test.isCreditFlow(conf);
 
         for (int i = 0; i < _countThreads; i++) {
             HashMap<String, Integer> subCounts = new HashMap<String,Integer>();
             _counts.add(subCounts);
             Q q = Q.make("Q_COUNT_"+i, conf);
-            q.register(cb);
+            if (creditFlow) {
+                q = CreditQ.make(q, conf);
+            } else {
+                _gate.watch(q);
+            }
             _toCount.add(q);
             Counter c = new Counter(_startSignal, _doneSignal, q, subCounts, _lat, _splitThreads);
+            c.configure(conf);
             _threads.add(c);
             c.start();
         }
 
         for (int i = 0; i < _splitThreads; i++) {
             Q q = Q.make("Q_SPLIT_"+i, conf);
-            q.register(cb);
+            if (creditFlow) {
+                q = CreditQ.make(q, conf);
+            } else {
+                _gate.watch(q);
+            }
             _toSplit.add(q);
             Splitter s = new Splitter(_startSignal, _doneSignal, q, _toCount, _sendThreads);
+            s.configure(conf);
             _threads.add(s);
             s.start();
         }
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+/**
+ * Fills in an event in place, like the Disruptor's EventTranslatorOneArg.  Queues that support it
+ * keep one event per slot created with newInstance and reuse it every time the slot comes around,
+ * so a consumer must not hold on to an event it got this way after onEvent returns.
+ */
+public interface QTranslator<T, A> {
+    /**
+     * @return a new empty event to be reused for this slot.
+     */
+    public T newInstance();
+
+    /**
+     * Copy the data from arg into event.
+     */
+    public void translateTo(T event, long sequence, A arg);
+}
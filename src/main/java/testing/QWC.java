@@ -9,6 +9,22 @@ import java.util.Map;
 
 public class QWC implements Test {
     public static class WCMessage extends TestData {
+        public static final QTranslator<WCMessage, WCMessage> TRANSLATOR = new QTranslator<WCMessage, WCMessage>() {
+            @Override
+            public WCMessage newInstance() {
+                return new WCMessage(0, 0l, null, false, false);
+            }
+
+            @Override
+            public void translateTo(WCMessage event, long sequence, WCMessage arg) {
+                event.iteration = arg.iteration;
+                event.start = arg.start;
+                event.allDone = arg.allDone;
+                event.word = arg.word;
+                event.lastWord = arg.lastWord;
+            }
+        };
+
         String word;
         boolean lastWord;
 
@@ -27,24 +43,7 @@ public class QWC implements Test {
     private LatencyEstimation _lat;
     private int _sendThreads;
     private int _recvThreads;
-    private volatile boolean throttle = false;
-
-    private class CB implements BpCb {
-        public void highWaterMark() {
-            check();
-        }
-
-        public void check() {
-            boolean tmp = false;
-            for (Q q: _q) {
-                tmp = tmp || q.isThrottled();
-            }
-        }
-
-        public void lowWaterMark() {
-            check();
-        }
-    }
+    private ThrottleGate _gate;
 
     public QWC(int sendThreads, int recvThreads) {
         _sendThreads = sendThreads;
@@ -73,18 +72,22 @@ public class QWC implements Test {
 
         @Override
         public void run() {
+            long allocStart = AllocationMeter.threadAllocatedBytes();
             try {
                 final GenSentences gen = new GenSentences();
                 final int iterations = _iterations;
+                final WCMessage msg = new WCMessage(0, 0l, null, false, false);
                 _startSignal.await();
                 for (int i = 0; i < iterations; i++) {
-                    while (throttle) {
-                        Thread.sleep(1);
-                    }
+                    _gate.await();
                     long start = _lat.getStart(i);
                     String [] words = gen.getNext().split(" ");
+                    msg.iteration = i;
+                    msg.start = start;
                     for (int j = 0; j < words.length; j++) {
-                        _q.get(Math.abs(words[j].hashCode()) % _q.size()).publish(new WCMessage(i, start, words[j], j == words.length-1, false));
+                        msg.word = words[j];
+                        msg.lastWord = j == words.length-1;
+                        _q.get(Math.abs(words[j].hashCode()) % _q.size()).publishEvent(WCMessage.TRANSLATOR, msg);
                     }
                 }
 
@@ -94,6 +97,7 @@ public class QWC implements Test {
              } catch (Exception e) {
                 throw new RuntimeException(e);
              } finally {
+                AllocationMeter.addSince(allocStart);
                 _doneSignal.countDown();
              }
         }
@@ -125,11 +129,29 @@ public class QWC implements Test {
                 _lat.recordLatency(data.iteration, data.start);
             }
         }
+
+        @Override
+        public void onEvents(Object[] events, int offset, int length) {
+            final HashMap<String, Integer> subCounts = _subCounts;
+            final LatencyEstimation lat = _lat;
+            final int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                WCMessage data = (WCMessage)events[i];
+                if (data.allDone) {
+                    continue;
+                }
+                Integer val = subCounts.get(data.word);
+                subCounts.put(data.word, val == null ? 1 : val + 1);
+                if (data.lastWord) {
+                    lat.recordLatency(data.iteration, data.start);
+                }
+            }
+        }
     }
 
     @Override
     public void prepare(LatencyEstimation lat, Map<String, String> conf, int iterations) {
-        CB cb = new CB();
+        _gate = new ThrottleGate(conf);
         _counts = new ArrayList<HashMap<String, Integer>>();
         _doneSignal = new CountDownLatch(_recvThreads + _sendThreads);
         _startSignal = new CountDownLatch(1);
@@ -141,9 +163,10 @@ public class QWC implements Test {
             HashMap<String, Integer> subCounts = new HashMap<String,Integer>();
             _counts.add(subCounts);
             Q q = Q.make("Q_"+i, conf);
-            q.register(cb);
+            _gate.watch(q);
             _q.add(q);
             Counter c = new Counter(_startSignal, _doneSignal, q, subCounts, _lat, _sendThreads);
+            c.configure(conf);
             _threads.add(c);
             c.start();
         }
@@ -0,0 +1,117 @@
+package testing;
+
+/**
+ * A streaming quantile estimator with a fixed relative error, in the style of DDSketch.
+ * Values are counted in logarithmically sized buckets, so any quantile comes back within
+ * relativeAccuracy of the true value, memory is fixed by the range of values and not by how
+ * many are recorded, and recording is O(1).  Two sketches with the same settings can be
+ * merged by adding up their buckets.
+ *
+ * Not thread safe, give each recording thread its own and merge them afterwards.
+ */
+public class QuantileSketch {
+    private final double _relativeAccuracy;
+    private final double _gamma;
+    private final double _logGamma;
+    private final long _maxValue;
+    private final long[] _counts;
+    private long _zeroCount = 0;
+    private long _count = 0;
+    private long _min = Long.MAX_VALUE;
+    private long _max = Long.MIN_VALUE;
+
+    /**
+     * @param relativeAccuracy how far off a quantile can be, as a fraction of its value.
+     * @param maxValue the largest value that can be recorded, anything larger is counted as this.
+     */
+    public QuantileSketch(double relativeAccuracy, long maxValue) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("relative accuracy has to be between 0 and 1, not " + relativeAccuracy);
+        }
+        _relativeAccuracy = relativeAccuracy;
+        _gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        _logGamma = Math.log(_gamma);
+        _maxValue = maxValue;
+        _counts = new long[index(maxValue) + 1];
+    }
+
+    //Bucket i holds (gamma^(i-1), gamma^i], values of 1 and above only
+    private int index(long value) {
+        return (int) Math.ceil(Math.log(value) / _logGamma);
+    }
+
+    //The value in the middle of bucket i, in relative terms, so it is off by at most the accuracy
+    private long valueOf(int index) {
+        return Math.round(2 * Math.pow(_gamma, index) / (_gamma + 1));
+    }
+
+    public void record(long value) {
+        if (value > _maxValue) {
+            value = _maxValue;
+        }
+        if (value <= 0) {
+            value = 0;
+            _zeroCount++;
+        } else {
+            _counts[index(value)]++;
+        }
+        _count++;
+        if (value < _min) {
+            _min = value;
+        }
+        if (value > _max) {
+            _max = value;
+        }
+    }
+
+    /**
+     * Add everything recorded in other to this sketch.
+     */
+    public void merge(QuantileSketch other) {
+        if (other._relativeAccuracy != _relativeAccuracy || other._maxValue != _maxValue) {
+            throw new IllegalArgumentException("Only sketches with the same accuracy and range can be merged");
+        }
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] += other._counts[i];
+        }
+        _zeroCount += other._zeroCount;
+        _count += other._count;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+    }
+
+    /**
+     * @param quantile between 0 and 1.
+     * @return the estimated value at quantile, or -1 if nothing was recorded.
+     */
+    public double getValueAtQuantile(double quantile) {
+        if (_count == 0) {
+            return -1;
+        }
+        long rank = (long) (quantile * (_count - 1));
+        if (rank < _zeroCount) {
+            return 0;
+        }
+        long seen = _zeroCount;
+        for (int i = 0; i < _counts.length; i++) {
+            seen += _counts[i];
+            if (seen > rank) {
+                //The ends are known exactly, do not let the bucket estimate go past them
+                return Math.max(_min, Math.min(_max, valueOf(i)));
+            }
+        }
+        return _max;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getMin() {
+        return _count == 0 ? -1 : _min;
+    }
+
+    public double getMax() {
+        return _count == 0 ? -1 : _max;
+    }
+}
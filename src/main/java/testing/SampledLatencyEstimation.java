@@ -0,0 +1,57 @@
+package testing;
+
+/**
+ * Only stamps and records a fraction of the iterations, picked the same way PctEstimation
+ * picks its samples.  The rest are given a start of 0 and skipped without reading the
+ * clock, so the estimation costs next to nothing for events that are not sampled.
+ * System.nanoTime() could in theory return 0 for a sampled event, that one is lost too.
+ */
+public class SampledLatencyEstimation implements LatencyEstimation {
+    private final LatencyEstimation _delegate;
+    private final int _cutoff;
+
+    /**
+     * @param percentage the fraction of iterations to record, between 0 and 1.
+     */
+    public SampledLatencyEstimation(LatencyEstimation delegate, double percentage) {
+        _delegate = delegate;
+        _cutoff = Math.max(1, (int)(percentage * 65536));
+    }
+
+    public long getStart(int iteration) {
+        if ((iteration & 0xFFFF) < _cutoff) {
+            return _delegate.getStart(iteration);
+        }
+        return 0l;
+    }
+
+    public void recordLatency(int iteration, long start) {
+        if (start != 0) {
+            _delegate.recordLatency(iteration, start);
+        }
+    }
+
+    public double getMin() {
+        return _delegate.getMin();
+    }
+
+    public double get50th() {
+        return _delegate.get50th();
+    }
+
+    public double get90th() {
+        return _delegate.get90th();
+    }
+
+    public double get99th() {
+        return _delegate.get99th();
+    }
+
+    public double getMax() {
+        return _delegate.getMax();
+    }
+
+    public String toString() {
+        return _delegate.toString();
+    }
+}
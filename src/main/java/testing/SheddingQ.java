@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * Drops events instead of letting a saturated queue add latency.  Q.shed is a comma
+ * separated list of
+ * <ul>
+ * <li>drop-newest, an event published to a full queue is dropped.</li>
+ * <li>drop-oldest, an event published to a full queue waits while the consumer throws away
+ * the oldest event in the queue to make room for it.</li>
+ * <li>sample, above the high watermark (Q.backpressure.high) only Q.shed.sample-rate
+ * (default 0.1) of the events published are kept.</li>
+ * <li>deadline, the consumer throws away events that are older than Q.shed.deadline-ms
+ * (default 100) going by TestData.start.  A start of 0 means the event was never stamped
+ * and it is always kept.</li>
+ * </ul>
+ * Only one of drop-newest and drop-oldest can be used.  An allDone message is never dropped,
+ * and neither is anything that is not TestData.  Drops are counted in TestStats as
+ * shed.NAME.newest, shed.NAME.oldest, shed.NAME.sampled and shed.NAME.stale, and told to the
+ * DropCb registered with registerDropped, if any.
+ *
+ * Whether the queue is full is only approximate when publishing with publishEvent to a queue
+ * that is a Watermarks.Gauge, so that nothing has to be allocated, a publish that races with
+ * others for the last slot may still wait for a moment.
+ */
+public class SheddingQ implements Q {
+    /**
+     * Passes on what the consumer gets, minus anything dropped.  Every event that is kept is
+     * passed on right away, nothing is held on to, because queues like OffHeapStructQ reuse
+     * the same event object for every record.  So if the last event of a batch is dropped the
+     * end of that batch is not marked, the same as a queue that does not mark its batches.
+     * The consumer is a single thread, so one of these is reused.
+     */
+    private class SheddingHandler implements EventHandler<Object> {
+        private EventHandler<Object> _delegate;
+        private long _now = 0;
+
+        @Override
+        public void onEvent(Object event, long sequence, boolean endOfBatch) throws Exception {
+            if (_now == 0) {
+                _now = System.nanoTime();
+            }
+            if (!shedOnConsume(event, _now)) {
+                _delegate.onEvent(event, sequence, endOfBatch);
+            }
+            if (endOfBatch) {
+                _now = 0;
+            }
+        }
+
+        public void reset(EventHandler<Object> delegate) {
+            _delegate = delegate;
+            _now = 0;
+        }
+    }
+
+    /**
+     * Passes on the runs of events that were not dropped as slices of the same array.
+     */
+    private class SheddingBatchHandler implements BatchHandler {
+        private BatchHandler _delegate;
+
+        @Override
+        public void onBatch(Object[] events, int offset, int length) throws Exception {
+            final long now = System.nanoTime();
+            final int end = offset + length;
+            int runStart = offset;
+            for (int i = offset; i < end; i++) {
+                if (shedOnConsume(events[i], now)) {
+                    if (i > runStart) {
+                        _delegate.onBatch(events, runStart, i - runStart);
+                    }
+                    runStart = i + 1;
+                }
+            }
+            if (end > runStart) {
+                _delegate.onBatch(events, runStart, end - runStart);
+            }
+        }
+    }
+
+    private final Q _q;
+    private final Watermarks.Gauge _gauge;
+    private final boolean _dropNewest;
+    private final boolean _dropOldest;
+    private final double _sampleRate;
+    private final double _high;
+    private final long _deadlineNanos;
+    //How many of the oldest events the consumer still has to drop to make room
+    private final AtomicLong _oldestToDrop = new AtomicLong(0);
+    private final SheddingHandler _handler = new SheddingHandler();
+    private final SheddingBatchHandler _batchHandler = new SheddingBatchHandler();
+    private final AtomicLong _newest;
+    private final AtomicLong _oldest;
+    private final AtomicLong _sampled;
+    private final AtomicLong _stale;
+    private volatile DropCb _dropCb = null;
+
+    /**
+     * @return q wrapped to shed load as configured by Q.shed, or q itself if that is not set.
+     */
+    public static Q make(Q q, Map<String, String> conf) {
+        String policies = conf.get("Q.shed");
+        if (policies == null) {
+            return q;
+        }
+        boolean dropNewest = false;
+        boolean dropOldest = false;
+        double sampleRate = 1.0;
+        long deadlineNanos = 0;
+        for (String policy: policies.split(",")) {
+            policy = policy.trim();
+            if ("drop-newest".equalsIgnoreCase(policy)) {
+                dropNewest = true;
+            } else if ("drop-oldest".equalsIgnoreCase(policy)) {
+                dropOldest = true;
+            } else if ("sample".equalsIgnoreCase(policy)) {
+                sampleRate = Q.getDouble(conf, "Q.shed.sample-rate", 0.1);
+            } else if ("deadline".equalsIgnoreCase(policy)) {
+                deadlineNanos = TimeUnit.MILLISECONDS.toNanos(Q.getLong(conf, "Q.shed.deadline-ms", 100));
+            } else {
+                throw new IllegalArgumentException(policy + " is not a supported shedding policy [\"drop-newest\", \"drop-oldest\", \"sample\", \"deadline\"]");
+            }
+        }
+        return new SheddingQ(q, dropNewest, dropOldest, sampleRate, Q.getDouble(conf, "Q.backpressure.high", 0.9), deadlineNanos);
+    }
+
+    public SheddingQ(Q q, boolean dropNewest, boolean dropOldest, double sampleRate, double high, long deadlineNanos) {
+        if (dropNewest && dropOldest) {
+            throw new IllegalArgumentException("Only one of drop-newest and drop-oldest can be used");
+        }
+        _q = q;
+        _gauge = q instanceof Watermarks.Gauge ? (Watermarks.Gauge)q : null;
+        _dropNewest = dropNewest;
+        _dropOldest = dropOldest;
+        _sampleRate = sampleRate;
+        _high = high;
+        _deadlineNanos = deadlineNanos;
+        String prefix = "shed." + q.getName() + ".";
+        _newest = TestStats.counter(prefix + "newest");
+        _oldest = TestStats.counter(prefix + "oldest");
+        _sampled = TestStats.counter(prefix + "sampled");
+        _stale = TestStats.counter(prefix + "stale");
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _q.register(cb);
+    }
+
+    @Override
+    public void registerDropped(DropCb cb) {
+        _dropCb = cb;
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _q.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _q.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+      return "SHED_"+_q.getName();
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+
+    //Counts a dropped event under counter, @return true
+    private boolean drop(AtomicLong counter) {
+        counter.incrementAndGet();
+        DropCb cb = _dropCb;
+        if (cb != null) {
+            cb.dropped(1);
+        }
+        return true;
+    }
+
+    private static boolean canDrop(Object event) {
+        return event instanceof TestData && !((TestData)event).allDone;
+    }
+
+    //Only called by the consumer
+    private boolean shedOnConsume(Object event, long now) {
+        if (!canDrop(event)) {
+            return false;
+        }
+        long toDrop;
+        while ((toDrop = _oldestToDrop.get()) > 0) {
+            if (_oldestToDrop.compareAndSet(toDrop, toDrop - 1)) {
+                return drop(_oldest);
+            }
+        }
+        if (_deadlineNanos > 0) {
+            long start = ((TestData)event).start;
+            if (start != 0 && now - start > _deadlineNanos) {
+                return drop(_stale);
+            }
+        }
+        return false;
+    }
+
+    private boolean isFull() {
+        return _gauge.population() >= _gauge.capacity();
+    }
+
+    private boolean isAboveHigh() {
+        if (_gauge == null) {
+            return _q.isThrottled();
+        }
+        return _gauge.population() >= _high * _gauge.capacity();
+    }
+
+    //@return true if event should not be published at all
+    private boolean sampleOut(Object event) {
+        if (_sampleRate < 1.0 && canDrop(event) && isAboveHigh()
+            && ThreadLocalRandom.current().nextDouble() >= _sampleRate) {
+            return drop(_sampled);
+        }
+        return false;
+    }
+
+    //Called once the queue was found full, @return true if obj was dropped
+    private boolean shedOnFull(Object event) {
+        if (!canDrop(event)) {
+            return false;
+        }
+        if (_dropNewest) {
+            return drop(_newest);
+        }
+        //drop-oldest, have the consumer make room and then wait for it
+        _oldestToDrop.incrementAndGet();
+        return false;
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        _handler.reset(handler);
+        _q.consumeBatch(_handler);
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        _handler.reset(handler);
+        _q.consumeBatch(_handler, max);
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        _handler.reset(handler);
+        _q.consumeBatchWhenAvailable(_handler);
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        _batchHandler._delegate = handler;
+        _q.consumeSliceWhenAvailable(_batchHandler);
+    }
+
+    @Override
+    public void publish(Object obj) {
+        if (sampleOut(obj)) {
+            return;
+        }
+        if (!_dropNewest && !_dropOldest) {
+            _q.publish(obj);
+            return;
+        }
+        try {
+            _q.tryPublish(obj);
+        } catch (InsufficientCapacityException e) {
+            if (!shedOnFull(obj)) {
+                _q.publish(obj);
+            }
+        }
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        if (_sampleRate >= 1.0 && !_dropNewest && !_dropOldest) {
+            //Nothing is dropped when publishing so keep the batch together
+            _q.publish(objs);
+            return;
+        }
+        for (Object obj: objs) {
+            publish(obj);
+        }
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        if (sampleOut(arg)) {
+            return;
+        }
+        if (!_dropNewest && !_dropOldest) {
+            _q.publishEvent(translator, arg);
+        } else if (_gauge != null) {
+            if (!isFull() || !shedOnFull(arg)) {
+                _q.publishEvent(translator, arg);
+            }
+        } else {
+            //No way to tell if it is full without trying, so the event has to be made up front
+            T event = translator.newInstance();
+            translator.translateTo(event, -1, arg);
+            publish(event);
+        }
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        if (!sampleOut(obj)) {
+            _q.tryPublish(obj);
+        }
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        return _q.reusesSlots();
+    }
+
+    @Override
+    public void close() {
+        _q.close();
+    }
+}
@@ -0,0 +1,75 @@
+package testing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the latency of every event, not a sample, in a QuantileSketch per thread, so
+ * memory stays fixed however long the test runs and recording takes no lock.  The sketches
+ * are merged the first time a result is asked for, which has to be after the recording
+ * threads are done.
+ */
+public class SketchLatencyEstimationImpl implements LatencyEstimation {
+    private static final long MAX_VALUE = 3600000000000L;
+
+    private final double _relativeAccuracy;
+    private final List<QuantileSketch> _sketches = new CopyOnWriteArrayList<QuantileSketch>();
+    private final ThreadLocal<QuantileSketch> _local = new ThreadLocal<QuantileSketch>() {
+        @Override
+        protected QuantileSketch initialValue() {
+            QuantileSketch sketch = new QuantileSketch(_relativeAccuracy, MAX_VALUE);
+            _sketches.add(sketch);
+            return sketch;
+        }
+    };
+    private QuantileSketch _merged = null;
+
+    /**
+     * @param relativeAccuracy how far off a reported latency can be, as a fraction of it.
+     */
+    public SketchLatencyEstimationImpl(double relativeAccuracy) {
+        _relativeAccuracy = relativeAccuracy;
+    }
+
+    public long getStart(int iteration) {
+        return System.nanoTime();
+    }
+
+    public void recordLatency(int iteration, long start) {
+        _local.get().record(System.nanoTime() - start);
+    }
+
+    private synchronized QuantileSketch merged() {
+        if (_merged == null) {
+            _merged = new QuantileSketch(_relativeAccuracy, MAX_VALUE);
+            for (QuantileSketch sketch: _sketches) {
+                _merged.merge(sketch);
+            }
+        }
+        return _merged;
+    }
+
+    public double getMin() {
+        return merged().getMin();
+    }
+
+    public double get50th() {
+        return merged().getValueAtQuantile(0.5);
+    }
+
+    public double get90th() {
+        return merged().getValueAtQuantile(0.9);
+    }
+
+    public double get99th() {
+        return merged().getValueAtQuantile(0.99);
+    }
+
+    public double getMax() {
+        return merged().getMax();
+    }
+
+    public String toString() {
+        return get50th()+"\t"+get90th()+"\t"+get99th();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append only file that batches of events are spilled to when they do not fit in memory.
+ * Batches are read back in the order they were written.  Once everything written has been
+ * read back the file is truncated.  So that a steady backlog, which never drains completely,
+ * does not grow the file without bound either, once more than compactAfter bytes at the
+ * front have been read back, and that is at least as much as is still waiting, the waiting
+ * batches are copied to the front of the file and the rest is cut off.
+ *
+ * Each record is an int length followed by the java serialized batch, so every event has to
+ * be Serializable.  This is only meant for the slow path.
+ */
+public class SpillFile {
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final File _file;
+    private final FileChannel _channel;
+    private final ByteBuffer _lengthBuffer = ByteBuffer.allocate(4);
+    private final long _compactAfter;
+    private long _writePos = 0;
+    private long _readPos = 0;
+    private int _numBatches = 0;
+    private ArrayList<Object> _peeked = null;
+    private int _peekedBytes = 0;
+
+    public SpillFile(String name, File dir, long compactAfter) throws IOException {
+        _compactAfter = Math.max(compactAfter, 1);
+        _file = File.createTempFile(name, ".spill", dir);
+        _file.deleteOnExit();
+        _channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Append batch to the end of the file.
+     * @return the number of bytes it took up on disk.
+     */
+    public synchronized int append(List<Object> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<Object>(batch));
+        out.close();
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.size());
+        record.putInt(bytes.size());
+        record.put(bytes.toByteArray());
+        record.flip();
+        while (record.hasRemaining()) {
+            _writePos += _channel.write(record, _writePos);
+        }
+        _numBatches++;
+        return record.capacity();
+    }
+
+    /**
+     * @return the oldest batch in the file without removing it, or null if there is none.
+     */
+    public synchronized ArrayList<Object> peek() throws IOException {
+        if (_peeked == null && _numBatches > 0) {
+            _lengthBuffer.clear();
+            readFully(_lengthBuffer, _readPos);
+            int length = _lengthBuffer.getInt(0);
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(record, _readPos + 4);
+            try {
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(record.array()));
+                _peeked = (ArrayList<Object>)in.readObject();
+                in.close();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            _peekedBytes = 4 + length;
+        }
+        return _peeked;
+    }
+
+    /**
+     * Remove the oldest batch, which must have been peeked first.
+     * @return the number of bytes freed up.
+     */
+    public synchronized int remove() throws IOException {
+        if (_peeked == null) {
+            throw new IllegalStateException("remove called without a peek");
+        }
+        int freed = _peekedBytes;
+        _readPos += freed;
+        _numBatches--;
+        _peeked = null;
+        _peekedBytes = 0;
+        if (_numBatches == 0) {
+            _channel.truncate(0);
+            _readPos = 0;
+            _writePos = 0;
+        } else if (_readPos >= _compactAfter && _readPos >= _writePos - _readPos) {
+            compact();
+        }
+        return freed;
+    }
+
+    //Moves what has not been read yet to the front of the file, copying never overlaps
+    //because at least as much has been read as is left
+    private void compact() throws IOException {
+        final long live = _writePos - _readPos;
+        ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(live, COPY_CHUNK));
+        long from = _readPos;
+        long to = 0;
+        while (to < live) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), live - to));
+            readFully(chunk, from);
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                int written = _channel.write(chunk, to);
+                to += written;
+                from += written;
+            }
+        }
+        _channel.truncate(live);
+        _readPos = 0;
+        _writePos = live;
+    }
+
+    public synchronized boolean isEmpty() {
+        return _numBatches == 0;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = _channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of spill file " + _file);
+            }
+            position += read;
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            //Ignored we are deleting it anyways
+        }
+        _file.delete();
+    }
+}
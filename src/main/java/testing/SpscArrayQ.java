@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Collection;
+import java.util.Iterator;
+
+import storm.perf.com.lmax.disruptor.Sequence;
+
+//Old Code for compatability reasons
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * A single producer, single consumer queue backed by a plain power of two ring of references.
+ * Each side keeps a cached copy of the other side's index, so the shared cursors are only read
+ * when the ring looks full (or empty).  Publication is a lazy set of the tail, so there is no
+ * CAS and no holder object anywhere on the hot path.
+ *
+ * Only a single thread may ever publish to one of these queues.
+ */
+public class SpscArrayQ implements Q, Watermarks.Gauge {
+    private static final String PREFIX = "spsc-";
+
+    /**
+     * A padded cursor owned by one side of the queue.  cached holds the last value read of the
+     * other side's cursor and is only ever touched by the owning thread.
+     */
+    static class Cursor extends Sequence {
+        long cached = 0;
+
+        Cursor() {
+            super(0);
+        }
+    }
+
+    private final Object[] _buffer;
+    private final int _mask;
+    private final int _spinTries;
+    private final Cursor _tail = new Cursor();
+    private final Cursor _head = new Cursor();
+    private final String _queueName;
+    private final Watermarks _watermarks = new Watermarks(this);
+
+    public static SpscArrayQ make(String name, int size, Map<String, String> conf) {
+        int spin = Q.getInt(conf, "Q.spsc.spin", 100);
+        return new SpscArrayQ(name, size, spin);
+    }
+
+    public SpscArrayQ(String queueName, int size, int spinTries) {
+        _queueName = PREFIX + queueName;
+        _buffer = new Object[size];
+        _mask = size - 1;
+        _spinTries = Math.max(spinTries, 0);
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _watermarks.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+        return _queueName;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        consume(handler, _buffer.length);
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        consume(handler, Math.min(max, _buffer.length));
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consume(handler, _buffer.length) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        for (int i = 0; i <= _spinTries; i++) {
+            if (consume(handler, _buffer.length) > 0) {
+                break;
+            }
+            Thread.yield();
+        }
+        _watermarks.checkLow();
+    }
+
+    //@return the sequence after the last event that is ready, head if there are none
+    private long available(long head) {
+        long available = _head.cached;
+        if (available <= head) {
+            available = _tail.get();
+            _head.cached = available;
+        }
+        return available;
+    }
+
+    /**
+     * Hand at most max of the available events to handler.
+     * @return the number of events consumed.
+     */
+    int consume(EventHandler<Object> handler, int max) {
+        final long head = _head.get();
+        final long available = available(head);
+        if (available <= head) {
+            return 0;
+        }
+        final long end = Math.min(available, head + max);
+        final Object[] buffer = _buffer;
+        for (long curr = head; curr < end; curr++) {
+            try {
+                int index = (int) curr & _mask;
+                Object o = buffer[index];
+                buffer[index] = null;
+                handler.onEvent(o, curr, curr == end - 1);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        _head.set(end);
+        return (int) (end - head);
+    }
+
+    /**
+     * Hand at most max of the available events to handler straight out of the ring, in two
+     * slices if they wrap around the end of it.
+     * @return the number of events consumed.
+     */
+    int consume(BatchHandler handler, int max) {
+        final long head = _head.get();
+        final long available = available(head);
+        if (available <= head) {
+            return 0;
+        }
+        final int count = (int) Math.min(available - head, max);
+        final Object[] buffer = _buffer;
+        final int from = (int) head & _mask;
+        final int first = Math.min(count, buffer.length - from);
+        try {
+            handler.onBatch(buffer, from, first);
+            if (first < count) {
+                handler.onBatch(buffer, 0, count - first);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        Arrays.fill(buffer, from, from + first, null);
+        if (first < count) {
+            Arrays.fill(buffer, 0, count - first, null);
+        }
+        _head.set(head + count);
+        return count;
+    }
+
+    private boolean hasCapacity(long tail, int count) {
+        final long wrapPoint = tail + count - _buffer.length;
+        if (_tail.cached < wrapPoint) {
+            _tail.cached = _head.get();
+            return _tail.cached >= wrapPoint;
+        }
+        return true;
+    }
+
+    private void waitForCapacity(long tail, int count) {
+        while (!hasCapacity(tail, count)) {
+            Thread.yield();
+        }
+    }
+
+    //_tail.cached is never ahead of the consumer's head, so it gives a population that is never
+    //too low without touching the consumer's cursor, which is only read close to the high mark
+    private void checkHigh(long tail) {
+        if (_watermarks.mayBeHigh(tail - _tail.cached)) {
+            _tail.cached = _head.get();
+            _watermarks.checkHigh();
+        }
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        Iterator<Object> it = objs.iterator();
+        int remaining = objs.size();
+        while (remaining > 0) {
+            final int count = Math.min(remaining, _buffer.length);
+            final long tail = _tail.get();
+            waitForCapacity(tail, count);
+            for (long at = tail; at < tail + count; at++) {
+                _buffer[(int) at & _mask] = it.next();
+            }
+            _tail.set(tail + count);
+            remaining -= count;
+        }
+        checkHigh(_tail.get());
+    }
+
+    @Override
+    public void publish(Object obj) {
+        final long tail = _tail.get();
+        waitForCapacity(tail, 1);
+        _buffer[(int) tail & _mask] = obj;
+        _tail.set(tail + 1);
+        checkHigh(tail + 1);
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        final long tail = _tail.get();
+        if (!hasCapacity(tail, 1)) {
+            throw InsufficientCapacityException.INSTANCE;
+        }
+        _buffer[(int) tail & _mask] = obj;
+        _tail.set(tail + 1);
+        checkHigh(tail + 1);
+    }
+
+    public long population() {
+        return _tail.get() - _head.get();
+    }
+
+    public long capacity() {
+        return _buffer.length;
+    }
+
+    @Override
+    public void close() {
+        //NOOP
+    }
+}
@@ -24,6 +24,7 @@ import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.InsufficientCapacityException;
 import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.MultiThreadedClaimStrategy;
+import com.lmax.disruptor.WaitStrategy;
 
 import java.util.concurrent.TimeUnit;
 
@@ -31,18 +32,23 @@ import java.util.concurrent.TimeUnit;
  * A single consumer queue that uses the LMAX Disruptor. They key to the performance is
  * the ability to catch up to the producer by processing tuples in batches.
  */
-public class StormQueue implements Q {
+public class StormQueue implements Q, Watermarks.Gauge {
     private backtype.storm.utils.DisruptorQueue _q;
+    private final Watermarks _watermarks = new Watermarks(this);
     
     public static StormQueue make(String name, int size, Map<String, String> conf) {
         long timeout = Q.getLong(conf, "Q.storm.timeout", 1000l);
+        WaitStrategy wait = WaitStrategies.makeLegacy(name, conf);
 
-        return new StormQueue(name, size, timeout);
+        return new StormQueue(name, size, timeout, wait);
     }
 
     public StormQueue(String queueName, int size, long timeout) {
-        _q = new backtype.storm.utils.DisruptorQueue(queueName, new MultiThreadedClaimStrategy(size),
-          new BlockingWaitStrategy());
+        this(queueName, size, timeout, new BlockingWaitStrategy());
+    }
+
+    public StormQueue(String queueName, int size, long timeout, WaitStrategy wait) {
+        _q = new backtype.storm.utils.DisruptorQueue(queueName, new MultiThreadedClaimStrategy(size), wait);
         //If compiling against 0.11.0-SNAPSHOT
         //_q = new backtype.storm.utils.DisruptorQueue(queueName, new MultiThreadedClaimStrategy(size),
         //  new BlockingWaitStrategy(), timeout);
@@ -52,12 +58,17 @@ public class StormQueue implements Q {
 
     @Override
     public void register(BpCb cb) {
-        //Ignored
+        _watermarks.register(cb);
     }
 
     @Override
     public boolean isThrottled() {
-        return false;
+        return _watermarks.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _watermarks.setWatermarks(high, low);
     }
 
     @Override
@@ -73,28 +84,41 @@ public class StormQueue implements Q {
     @Override
     public void consumeBatch(EventHandler<Object> handler) {
         _q.consumeBatch(handler);
+        _watermarks.checkLow();
     }
     
     @Override
     public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
         _q.consumeBatchWhenAvailable(handler);
+        _watermarks.checkLow();
     }
 
     @Override
     public void publish(Collection<Object> objs) {
         for (Object obj: objs) {
-            publish(obj);
+            _q.publish(obj);
         }
+        _watermarks.checkHigh();
     }
     
     @Override
     public void publish(Object obj) {
         _q.publish(obj);
+        _watermarks.checkHigh();
     }
     
     @Override
     public void tryPublish(Object obj) throws InsufficientCapacityException {
         _q.tryPublish(obj);
+        _watermarks.checkHigh();
+    }
+
+    public long population() {
+        return _q.population();
+    }
+
+    public long capacity() {
+        return _q.capacity();
     }
 
     @Override
@@ -7,4 +7,19 @@ public interface Test {
     public void runTest(int iterations) throws Exception;
     public void cleanup() throws Exception;
     public String description();
+
+    /**
+     * Multi stage tests either throttle every sender when any queue passes its high watermark
+     * (Test.flow=watermark, the default) or give each link its own credits (Test.flow=credit).
+     */
+    public static boolean isCreditFlow(Map<String, String> conf) {
+        String flow = conf.get("Test.flow");
+        if (flow == null || "watermark".equals(flow)) {
+            return false;
+        }
+        if ("credit".equals(flow)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Test.flow must be watermark or credit, not " + flow);
+    }
 }
@@ -1,6 +1,25 @@
 package testing;
 
-public class TestData {
+import java.io.Serializable;
+
+public class TestData implements Serializable {
+    /**
+     * Copies one TestData into a reusable one.
+     */
+    public static final QTranslator<TestData, TestData> TRANSLATOR = new QTranslator<TestData, TestData>() {
+        @Override
+        public TestData newInstance() {
+            return new TestData(0, 0l, false);
+        }
+
+        @Override
+        public void translateTo(TestData event, long sequence, TestData arg) {
+            event.iteration = arg.iteration;
+            event.start = arg.start;
+            event.allDone = arg.allDone;
+        }
+    };
+
     long start;
     int iteration;
     boolean allDone;
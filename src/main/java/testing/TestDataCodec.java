@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec for plain TestData events.  Subclasses like WCMessage carry variable length data
+ * and are rejected.
+ *
+ * Layout: start (long) | iteration (int) | allDone (byte) padded out to 16 bytes.
+ */
+public class TestDataCodec implements EventCodec<TestData> {
+    private static final int START_OFFSET = 0;
+    private static final int ITERATION_OFFSET = 8;
+    private static final int ALL_DONE_OFFSET = 12;
+
+    @Override
+    public int recordSize() {
+        return 16;
+    }
+
+    @Override
+    public boolean supports(Object event) {
+        return event != null && event.getClass() == TestData.class;
+    }
+
+    @Override
+    public void encode(Object event, ByteBuffer buffer, int offset) {
+        TestData data = (TestData)event;
+        buffer.putLong(offset + START_OFFSET, data.start);
+        buffer.putInt(offset + ITERATION_OFFSET, data.iteration);
+        buffer.put(offset + ALL_DONE_OFFSET, data.allDone ? (byte)1 : (byte)0);
+    }
+
+    @Override
+    public TestData newFlyweight() {
+        return new TestData(0, 0l, false);
+    }
+
+    @Override
+    public void wrap(TestData flyweight, ByteBuffer buffer, int offset) {
+        flyweight.start = buffer.getLong(offset + START_OFFSET);
+        flyweight.iteration = buffer.getInt(offset + ITERATION_OFFSET);
+        flyweight.allDone = buffer.get(offset + ALL_DONE_OFFSET) != 0;
+    }
+}
@@ -0,0 +1,55 @@
+package testing;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Named counters that parts of a test can bump, Main resets them before each test is
+ * prepared and prints whatever was registered after the test's row.
+ * Look a counter up once and hold on to it, the lookup is not meant for the hot path.
+ */
+public class TestStats {
+    private static final ConcurrentHashMap<String, AtomicLong> _counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    public static AtomicLong counter(String name) {
+        AtomicLong ret = _counters.get(name);
+        if (ret == null) {
+            AtomicLong created = new AtomicLong(0);
+            ret = _counters.putIfAbsent(name, created);
+            if (ret == null) {
+                ret = created;
+            }
+        }
+        return ret;
+    }
+
+    public static void reset() {
+        _counters.clear();
+    }
+
+    /**
+     * @return the sum of every counter whose name starts with prefix.
+     */
+    public static long sum(String prefix) {
+        long ret = 0;
+        for (Map.Entry<String, AtomicLong> entry: _counters.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                ret += entry.getValue().get();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the current value of every counter sorted by name.
+     */
+    public static Map<String, Long> snapshot() {
+        TreeMap<String, Long> ret = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry: _counters.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().get());
+        }
+        return ret;
+    }
+}
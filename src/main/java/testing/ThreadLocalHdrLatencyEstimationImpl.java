@@ -0,0 +1,99 @@
+package testing;
+
+import org.HdrHistogram.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Like HdrLatencyEstimationImpl, but every recording thread gets a Histogram of its own, so
+ * recording takes no lock and threads do not share any cache lines.  The histograms are
+ * only merged when a result is asked for, which has to be after the recording threads are
+ * done, the way Main asks for them once the test has finished.
+ */
+public class ThreadLocalHdrLatencyEstimationImpl implements LatencyEstimation {
+    private static final long MAX_VALUE = 3600000000000L;
+
+    private final List<Histogram> _histos = new CopyOnWriteArrayList<Histogram>();
+    private final ThreadLocal<Histogram> _local = new ThreadLocal<Histogram>() {
+        @Override
+        protected Histogram initialValue() {
+            Histogram histo = new Histogram(MAX_VALUE, 3);
+            _histos.add(histo);
+            return histo;
+        }
+    };
+    private Histogram _merged = null;
+    private final long _expectedInterval;
+
+    public ThreadLocalHdrLatencyEstimationImpl() {
+        this(0);
+    }
+
+    /**
+     * @param expectedIntervalNanos see HdrLatencyEstimationImpl.
+     */
+    public ThreadLocalHdrLatencyEstimationImpl(long expectedIntervalNanos) {
+        _expectedInterval = expectedIntervalNanos;
+    }
+
+    public long getStart(int iteration) {
+        return System.nanoTime();
+    } 
+
+    public void recordLatency(int iteration, long start) {
+        long end = System.nanoTime();
+        long time = end - start;
+        if (time < 0) {
+            System.out.println("TIME < 0 "+end+" "+start);
+            time = 0;
+        }
+        if (time > MAX_VALUE) {
+            System.out.println("TIME > MAX "+end+" "+start);
+            time = MAX_VALUE;
+        }
+        if (_expectedInterval > 0) {
+            _local.get().recordValueWithExpectedInterval(time, _expectedInterval);
+        } else {
+            _local.get().recordValue(time);
+        }
+    }
+
+    private synchronized Histogram merged() {
+        if (_merged == null) {
+            _merged = new Histogram(MAX_VALUE, 3);
+            for (Histogram histo: _histos) {
+                _merged.add(histo);
+            }
+        }
+        return _merged;
+    }
+
+    public double getPct(double pct) {
+        return merged().getValueAtPercentile(pct * 100);
+    }
+
+    public double getMin() {
+        return merged().getMinValue();
+    }
+
+    public double getMax() {
+        return merged().getMaxValue();
+    }
+
+    public double get50th() {
+        return getPct(0.5);
+    }
+
+    public double get90th() {
+        return getPct(0.9);
+    }
+
+    public double get99th() {
+        return getPct(0.99);
+    }
+
+    public String toString() {
+        return get50th()+"\t"+get90th()+"\t"+get99th();
+    }
+}
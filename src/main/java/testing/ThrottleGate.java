@@ -0,0 +1,97 @@
+package testing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Backpressure for the senders in a test.  The gate watches a set of queues and is closed
+ * while any of them is throttled.  Senders call await before each publish, which is a single
+ * volatile read while the gate is open.  While it is closed they park, and are unparked as
+ * soon as every queue is back under its low watermark.
+ *
+ * Watching a queue makes its producers check the high watermark, so the gate only watches
+ * anything when one of the Q.backpressure.* keys is set, otherwise it stays open and the
+ * queues run exactly as they would with no backpressure at all.
+ */
+public class ThrottleGate implements BpCb {
+    //Only a safety net, normally the queues wake us up
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<Q> _queues = new CopyOnWriteArrayList<Q>();
+    private final ConcurrentLinkedQueue<Thread> _waiters = new ConcurrentLinkedQueue<Thread>();
+    private final boolean _enabled;
+    private volatile boolean _closed = false;
+
+    public ThrottleGate(Map<String, String> conf) {
+        boolean enabled = false;
+        for (String key: conf.keySet()) {
+            if (key.startsWith("Q.backpressure.")) {
+                enabled = true;
+                break;
+            }
+        }
+        _enabled = enabled;
+    }
+
+    public void watch(Q q) {
+        if (_enabled) {
+            _queues.add(q);
+            q.register(this);
+        }
+    }
+
+    @Override
+    public void highWaterMark() {
+        check();
+    }
+
+    @Override
+    public void lowWaterMark() {
+        check();
+    }
+
+    public synchronized void check() {
+        boolean closed = false;
+        for (Q q: _queues) {
+            if (q.isThrottled()) {
+                closed = true;
+                break;
+            }
+        }
+        _closed = closed;
+        if (!closed) {
+            for (Thread t: _waiters) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    public void await() throws InterruptedException {
+        if (!_closed) {
+            return;
+        }
+        Thread me = Thread.currentThread();
+        _waiters.add(me);
+        try {
+            while (_closed) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (_closed) {
+                    check();
+                }
+            }
+        } finally {
+            _waiters.remove(me);
+        }
+    }
+}
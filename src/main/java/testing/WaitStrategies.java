@@ -0,0 +1,301 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import storm.perf.com.lmax.disruptor.AlertException;
+import storm.perf.com.lmax.disruptor.BlockingWaitStrategy;
+import storm.perf.com.lmax.disruptor.BusySpinWaitStrategy;
+import storm.perf.com.lmax.disruptor.LiteBlockingWaitStrategy;
+import storm.perf.com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import storm.perf.com.lmax.disruptor.Sequence;
+import storm.perf.com.lmax.disruptor.SequenceBarrier;
+import storm.perf.com.lmax.disruptor.SleepingWaitStrategy;
+import storm.perf.com.lmax.disruptor.TimeoutBlockingWaitStrategy;
+import storm.perf.com.lmax.disruptor.TimeoutException;
+import storm.perf.com.lmax.disruptor.WaitStrategy;
+import storm.perf.com.lmax.disruptor.YieldingWaitStrategy;
+
+/**
+ * Builds the wait strategy the disruptor backed queues use for their consumer, from
+ * Q.disruptor.wait, which is one of
+ * <ul>
+ * <li>blocking, lite-blocking and timeout-blocking, which park on a lock until a producer
+ * signals them.  timeout-blocking wakes up after Q.disruptor.timeout ms.</li>
+ * <li>busy-spin and yielding, which never give up the CPU.</li>
+ * <li>sleeping, which spins and yields, then parks for a moment at a time once
+ * Q.disruptor.wait.sleep-retries (default 200) tries are used up.</li>
+ * <li>phased-backoff, which spins for Q.disruptor.wait.spin-us (default 10), yields until
+ * Q.disruptor.wait.yield-us (default 100) and then falls back to
+ * Q.disruptor.wait.phased-fallback, which is lite-blocking (the default), blocking or
+ * sleeping.</li>
+ * </ul>
+ * The disruptor shipped with storm is an older version that only has blocking, busy-spin,
+ * yielding and sleeping, none of which can be tuned.
+ *
+ * If Q.disruptor.wait.count is set every strategy is wrapped so the consumer's waits are
+ * counted in TestStats as wait.NAME.ready (nothing to wait for), wait.NAME.spun,
+ * wait.NAME.blocked and wait.NAME.wait-ns.  What the strategy did inside a wait cannot be
+ * seen from outside, so a wait is counted as blocked if it went on past the point where the
+ * strategy stops spinning.  busy-spin, yielding and sleeping never wait for a signal, so all
+ * of their waits are counted as spun.
+ */
+public class WaitStrategies {
+    public static final String BLOCKING = "blocking";
+    public static final String LITE_BLOCKING = "lite-blocking";
+    public static final String TIMEOUT_BLOCKING = "timeout-blocking";
+    public static final String BUSY_SPIN = "busy-spin";
+    public static final String YIELDING = "yielding";
+    public static final String SLEEPING = "sleeping";
+    public static final String PHASED_BACKOFF = "phased-backoff";
+
+    private static final String[] ALL = {BLOCKING, LITE_BLOCKING, TIMEOUT_BLOCKING, BUSY_SPIN, YIELDING, SLEEPING, PHASED_BACKOFF};
+    private static final String[] LEGACY = {BLOCKING, BUSY_SPIN, YIELDING, SLEEPING};
+
+    /**
+     * Counts what happened each time the consumer had to wait.
+     */
+    private static class WaitCounter {
+        private final long _blockAfterNanos;
+        private final AtomicLong _ready;
+        private final AtomicLong _spun;
+        private final AtomicLong _blocked;
+        private final AtomicLong _waitNanos;
+
+        public WaitCounter(String queueName, long blockAfterNanos) {
+            _blockAfterNanos = blockAfterNanos;
+            String prefix = "wait." + queueName + ".";
+            _ready = TestStats.counter(prefix + "ready");
+            _spun = TestStats.counter(prefix + "spun");
+            _blocked = TestStats.counter(prefix + "blocked");
+            _waitNanos = TestStats.counter(prefix + "wait-ns");
+        }
+
+        public void ready() {
+            _ready.incrementAndGet();
+        }
+
+        public void waited(long start) {
+            long waited = System.nanoTime() - start;
+            _waitNanos.addAndGet(waited);
+            if (waited > _blockAfterNanos) {
+                _blocked.incrementAndGet();
+            } else {
+                _spun.incrementAndGet();
+            }
+        }
+    }
+
+    private static class CountingWaitStrategy implements WaitStrategy {
+        private final WaitStrategy _delegate;
+        private final WaitCounter _counter;
+
+        public CountingWaitStrategy(WaitStrategy delegate, WaitCounter counter) {
+            _delegate = delegate;
+            _counter = counter;
+        }
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier)
+            throws AlertException, InterruptedException, TimeoutException {
+            if (dependentSequence.get() >= sequence) {
+                _counter.ready();
+                return _delegate.waitFor(sequence, cursor, dependentSequence, barrier);
+            }
+            long start = System.nanoTime();
+            try {
+                return _delegate.waitFor(sequence, cursor, dependentSequence, barrier);
+            } finally {
+                _counter.waited(start);
+            }
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            _delegate.signalAllWhenBlocking();
+        }
+    }
+
+    private static class LegacyCountingWaitStrategy implements com.lmax.disruptor.WaitStrategy {
+        private final com.lmax.disruptor.WaitStrategy _delegate;
+        private final WaitCounter _counter;
+
+        public LegacyCountingWaitStrategy(com.lmax.disruptor.WaitStrategy delegate, WaitCounter counter) {
+            _delegate = delegate;
+            _counter = counter;
+        }
+
+        private static boolean isReady(long sequence, com.lmax.disruptor.Sequence cursor, com.lmax.disruptor.Sequence[] dependents) {
+            if (dependents.length == 0) {
+                return cursor.get() >= sequence;
+            }
+            for (com.lmax.disruptor.Sequence dependent: dependents) {
+                if (dependent.get() < sequence) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long waitFor(long sequence, com.lmax.disruptor.Sequence cursor, com.lmax.disruptor.Sequence[] dependents,
+                            com.lmax.disruptor.SequenceBarrier barrier)
+            throws com.lmax.disruptor.AlertException, InterruptedException {
+            if (isReady(sequence, cursor, dependents)) {
+                _counter.ready();
+                return _delegate.waitFor(sequence, cursor, dependents, barrier);
+            }
+            long start = System.nanoTime();
+            try {
+                return _delegate.waitFor(sequence, cursor, dependents, barrier);
+            } finally {
+                _counter.waited(start);
+            }
+        }
+
+        @Override
+        public long waitFor(long sequence, com.lmax.disruptor.Sequence cursor, com.lmax.disruptor.Sequence[] dependents,
+                            com.lmax.disruptor.SequenceBarrier barrier, long timeout, TimeUnit sourceUnit)
+            throws com.lmax.disruptor.AlertException, InterruptedException {
+            if (isReady(sequence, cursor, dependents)) {
+                _counter.ready();
+                return _delegate.waitFor(sequence, cursor, dependents, barrier, timeout, sourceUnit);
+            }
+            long start = System.nanoTime();
+            try {
+                return _delegate.waitFor(sequence, cursor, dependents, barrier, timeout, sourceUnit);
+            } finally {
+                _counter.waited(start);
+            }
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            _delegate.signalAllWhenBlocking();
+        }
+    }
+
+    private static String getStrategy(Map<String, String> conf, String defaultStrategy, String[] supported) {
+        String ret = conf.get("Q.disruptor.wait");
+        if (ret == null) {
+            ret = defaultStrategy;
+        }
+        for (String s: supported) {
+            if (s.equalsIgnoreCase(ret)) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException(ret + " is not a supported wait strategy here " + Arrays.toString(supported));
+    }
+
+    //How long a wait can go on before the strategy has stopped spinning and is blocked
+    private static long blockAfterNanos(String strategy, Map<String, String> conf) {
+        //sleeping backs off after a number of tries, not a time, and only ever polls
+        if (BUSY_SPIN.equals(strategy) || YIELDING.equals(strategy) || SLEEPING.equals(strategy)) {
+            return Long.MAX_VALUE;
+        }
+        if (PHASED_BACKOFF.equals(strategy)) {
+            return TimeUnit.MICROSECONDS.toNanos(Q.getLong(conf, "Q.disruptor.wait.spin-us", 10)
+                                                 + Q.getLong(conf, "Q.disruptor.wait.yield-us", 100));
+        }
+        return 0;
+    }
+
+    /**
+     * Make a wait strategy for the shaded disruptor.
+     * @param strategy one of the names above.
+     * @param timeoutMs how long timeout-blocking waits.
+     */
+    public static WaitStrategy make(String strategy, long timeoutMs, Map<String, String> conf) {
+        if (BLOCKING.equals(strategy)) {
+            return new BlockingWaitStrategy();
+        } else if (LITE_BLOCKING.equals(strategy)) {
+            return new LiteBlockingWaitStrategy();
+        } else if (TIMEOUT_BLOCKING.equals(strategy)) {
+            if (timeoutMs <= 0) {
+                throw new IllegalArgumentException(TIMEOUT_BLOCKING + " needs a Q.disruptor.timeout > 0");
+            }
+            return new TimeoutBlockingWaitStrategy(timeoutMs, TimeUnit.MILLISECONDS);
+        } else if (BUSY_SPIN.equals(strategy)) {
+            return new BusySpinWaitStrategy();
+        } else if (YIELDING.equals(strategy)) {
+            return new YieldingWaitStrategy();
+        } else if (SLEEPING.equals(strategy)) {
+            return new SleepingWaitStrategy(Q.getInt(conf, "Q.disruptor.wait.sleep-retries", 200));
+        } else if (PHASED_BACKOFF.equals(strategy)) {
+            long spinUs = Q.getLong(conf, "Q.disruptor.wait.spin-us", 10);
+            long yieldUs = Q.getLong(conf, "Q.disruptor.wait.yield-us", 100);
+            String fallback = conf.get("Q.disruptor.wait.phased-fallback");
+            if (fallback == null || LITE_BLOCKING.equals(fallback)) {
+                return PhasedBackoffWaitStrategy.withLiteLock(spinUs, yieldUs, TimeUnit.MICROSECONDS);
+            } else if (BLOCKING.equals(fallback)) {
+                return PhasedBackoffWaitStrategy.withLock(spinUs, yieldUs, TimeUnit.MICROSECONDS);
+            } else if (SLEEPING.equals(fallback)) {
+                return PhasedBackoffWaitStrategy.withSleep(spinUs, yieldUs, TimeUnit.MICROSECONDS);
+            }
+            throw new IllegalArgumentException("Q.disruptor.wait.phased-fallback must be lite-blocking, blocking or sleeping, not " + fallback);
+        }
+        throw new IllegalArgumentException(strategy + " is not a supported wait strategy " + Arrays.toString(ALL));
+    }
+
+    /**
+     * Make the consumer wait strategy for a queue on the shaded disruptor from conf.
+     * @param defaultStrategy what to use if Q.disruptor.wait is not set.
+     */
+    public static WaitStrategy make(String queueName, Map<String, String> conf, String defaultStrategy, long timeoutMs) {
+        String strategy = getStrategy(conf, defaultStrategy, ALL);
+        WaitStrategy ret = make(strategy, timeoutMs, conf);
+        if (conf.containsKey("Q.disruptor.wait.count")) {
+            ret = new CountingWaitStrategy(ret, new WaitCounter(queueName, blockAfterNanos(strategy, conf)));
+        }
+        return ret;
+    }
+
+    /**
+     * Make a wait strategy for the disruptor shipped with storm.
+     */
+    public static com.lmax.disruptor.WaitStrategy makeLegacy(String strategy) {
+        if (BLOCKING.equals(strategy)) {
+            return new com.lmax.disruptor.BlockingWaitStrategy();
+        } else if (BUSY_SPIN.equals(strategy)) {
+            return new com.lmax.disruptor.BusySpinWaitStrategy();
+        } else if (YIELDING.equals(strategy)) {
+            return new com.lmax.disruptor.YieldingWaitStrategy();
+        } else if (SLEEPING.equals(strategy)) {
+            return new com.lmax.disruptor.SleepingWaitStrategy();
+        }
+        throw new IllegalArgumentException(strategy + " is not supported by the disruptor storm ships with " + Arrays.toString(LEGACY));
+    }
+
+    /**
+     * Make the consumer wait strategy for a queue on the disruptor shipped with storm from conf,
+     * blocking if Q.disruptor.wait is not set.
+     */
+    public static com.lmax.disruptor.WaitStrategy makeLegacy(String queueName, Map<String, String> conf) {
+        String strategy = getStrategy(conf, BLOCKING, LEGACY);
+        com.lmax.disruptor.WaitStrategy ret = makeLegacy(strategy);
+        if (conf.containsKey("Q.disruptor.wait.count")) {
+            ret = new LegacyCountingWaitStrategy(ret, new WaitCounter(queueName, blockAfterNanos(strategy, conf)));
+        }
+        return ret;
+    }
+}
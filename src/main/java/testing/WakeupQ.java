@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Collection;
+import java.util.concurrent.locks.LockSupport;
+
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * Wakes up a consumer that is parked on a Signal shared by several queues whenever
+ * something is published, so a thread serving many inputs only has to park once for all of
+ * them instead of waiting on any one queue.
+ *
+ * Publishing costs one volatile read unless the consumer is asleep.  The consumer has to
+ * look at its inputs one more time after it says it is going to sleep, but a publish that
+ * races with that can still be missed, so it only ever parks for a bounded time.  Events
+ * the wrapped queue publishes later on its own, like a lingering batch being flushed, do not
+ * wake the consumer either.
+ */
+public class WakeupQ implements Q {
+    /**
+     * What one consumer thread parks on.
+     */
+    public static class Signal {
+        private volatile Thread _sleeper = null;
+
+        /**
+         * Wake up the consumer if it is asleep.
+         */
+        public void wake() {
+            Thread sleeper = _sleeper;
+            if (sleeper != null) {
+                LockSupport.unpark(sleeper);
+            }
+        }
+
+        /**
+         * The consumer is about to sleep.  It has to check all of its inputs again after
+         * this and then either call sleep or cancelSleep.
+         */
+        public void prepareToSleep() {
+            _sleeper = Thread.currentThread();
+        }
+
+        public void sleep(long maxNanos) {
+            LockSupport.parkNanos(this, maxNanos);
+            _sleeper = null;
+        }
+
+        public void cancelSleep() {
+            _sleeper = null;
+        }
+    }
+
+    private final Q _q;
+    private final Signal _signal;
+
+    public WakeupQ(Q q, Signal signal) {
+        _q = q;
+        _signal = signal;
+    }
+
+    @Override
+    public void register(BpCb cb) {
+        _q.register(cb);
+    }
+
+    @Override
+    public boolean isThrottled() {
+        return _q.isThrottled();
+    }
+
+    @Override
+    public void setWatermarks(double high, double low) {
+        _q.setWatermarks(high, low);
+    }
+
+    @Override
+    public String getName() {
+      return "WAKEUP_"+_q.getName();
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler) {
+        _q.consumeBatch(handler);
+    }
+
+    @Override
+    public void consumeBatch(EventHandler<Object> handler, int max) {
+        _q.consumeBatch(handler, max);
+    }
+
+    @Override
+    public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+        _q.consumeBatchWhenAvailable(handler);
+    }
+
+    @Override
+    public void consumeSliceWhenAvailable(BatchHandler handler) {
+        _q.consumeSliceWhenAvailable(handler);
+    }
+
+    @Override
+    public void publish(Object obj) {
+        _q.publish(obj);
+        _signal.wake();
+    }
+
+    @Override
+    public void publish(Collection<Object> objs) {
+        _q.publish(objs);
+        _signal.wake();
+    }
+
+    @Override
+    public <T, A> void publishEvent(QTranslator<T, A> translator, A arg) {
+        _q.publishEvent(translator, arg);
+        _signal.wake();
+    }
+
+    @Override
+    public void tryPublish(Object obj) throws InsufficientCapacityException {
+        _q.tryPublish(obj);
+        _signal.wake();
+    }
+
+    @Override
+    public boolean reusesSlots() {
+        return _q.reusesSlots();
+    }
+
+    @Override
+    public void close() {
+        _q.close();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * High and low watermark backpressure shared by all of the Q implementations.
+ * Producers call checkHigh after they publish, guarded by mayBeHigh where reading the
+ * queue's population would cost them, and the consumer calls checkLow after every
+ * batch it consumes.  The BpCb is told exactly once each time the queue crosses the high
+ * watermark and once when it drops back to the low one.
+ *
+ * A producer can decide to throttle just after the consumer made its last check, and then
+ * the queue might drain without anyone checking again, so isThrottled rechecks the low
+ * watermark too.  Anything waiting on a throttled queue should poll it now and then.
+ */
+public class Watermarks {
+    /**
+     * How full the queue being watched is.
+     */
+    public interface Gauge {
+        long population();
+        long capacity();
+    }
+
+    private final Gauge _gauge;
+    private final AtomicBoolean _throttleOn = new AtomicBoolean(false);
+    private volatile BpCb _cb = null;
+    private volatile double _high = 0.9;
+    private volatile double _low = 0.4;
+    private volatile boolean _enabled = true;
+
+    public Watermarks(Gauge gauge) {
+        _gauge = gauge;
+    }
+
+    public void register(BpCb cb) {
+        _cb = cb;
+    }
+
+    /**
+     * Set the watermarks as fractions of the capacity.
+     */
+    public void setWatermarks(double high, double low) {
+        if (low > high) {
+            throw new IllegalArgumentException("low watermark " + low + " is above the high watermark " + high);
+        }
+        _high = high;
+        _low = low;
+    }
+
+    public void setHigh(double high) {
+        _high = high;
+    }
+
+    public void setLow(double low) {
+        _low = low;
+    }
+
+    public long getHigh() {
+        return (long) (_gauge.capacity() * _high);
+    }
+
+    public long getLow() {
+        return (long) (_gauge.capacity() * _low);
+    }
+
+    public void setEnabled(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    public boolean isThrottled() {
+        if (_throttleOn.get()) {
+            checkLow();
+            return _throttleOn.get();
+        }
+        return false;
+    }
+
+    //called by producers, only looks at the queue when someone is listening
+    public void checkHigh() {
+        BpCb cb = _cb;
+        if (cb != null && _enabled && !_throttleOn.get()
+            && _gauge.population() >= getHigh() && _throttleOn.compareAndSet(false, true)) {
+            try {
+                cb.highWaterMark();
+            } catch (Exception e) {
+                throw new RuntimeException("Exception during calling highWaterMark callback!", e);
+            }
+        }
+    }
+
+    /**
+     * A cheap test producers make before checkHigh, so the queue is not looked at for every
+     * event.  population is what the producer can work out from what it already has at hand,
+     * like a copy of the consumer's position it read earlier.
+     * @return true if someone is listening and population is at or over the high watermark.
+     */
+    public boolean mayBeHigh(long population) {
+        return _cb != null && _enabled && !_throttleOn.get() && population >= getHigh();
+    }
+
+    //called by the consumer
+    public void checkLow() {
+        if (_throttleOn.get() && _gauge.population() <= getLow() && _throttleOn.compareAndSet(true, false)) {
+            BpCb cb = _cb;
+            if (cb != null) {
+                try {
+                    cb.lowWaterMark();
+                } catch (Exception e) {
+                    throw new RuntimeException("Exception during calling lowWaterMark callback!", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing;
+
+import java.util.Map;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Old Code for compatability reasons
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+
+/**
+ * A pool of per consumer lanes where a consumer that runs out of work steals from the
+ * others, so one slow consumer does not build up a backlog while the rest sit idle.
+ *
+ * lane(i) is the Q for the i'th consumer.  Events can be published to any lane and its owner
+ * takes them oldest first.  When its own lane is empty it takes up to stealBatch of the
+ * oldest events from the first other lane that has any, oldest first as well so stolen work
+ * is the work that has been waiting longest.  Each lane is bounded by its capacity, a
+ * publisher waits for room the same way it would on any other Q.
+ *
+ * Because any consumer can end up with any event, markers that a particular consumer has to
+ * see, like allDone, must be published with Lane.publishToOwner instead.
+ *
+ * Steals are counted in TestStats under steal.NAME.steals and steal.NAME.stolen.
+ */
+public class WorkStealingQ {
+    private static final String PREFIX = "steal-";
+
+    /**
+     * One consumer's lane, only that consumer may consume from it.
+     */
+    public class Lane implements Q, Watermarks.Gauge {
+        private final int _index;
+        private final String _laneName;
+        private final ConcurrentLinkedDeque<Object> _deque = new ConcurrentLinkedDeque<Object>();
+        private final ConcurrentLinkedQueue<Object> _owned = new ConcurrentLinkedQueue<Object>();
+        //ConcurrentLinkedDeque.size() walks the whole deque so the count is kept here
+        private final MpscArrayQ.PaddedAtomicLong _population = new MpscArrayQ.PaddedAtomicLong(0);
+        private final Watermarks _watermarks = new Watermarks(this);
+        private long _sequence = 0;
+        //An owned marker taken while this lane still had events, only touched by the owner
+        private Object _heldOwned = null;
+
+        private Lane(int index) {
+            _index = index;
+            _laneName = _queueName + "-" + index;
+        }
+
+        @Override
+        public void register(BpCb cb) {
+            _watermarks.register(cb);
+        }
+
+        @Override
+        public boolean isThrottled() {
+            return _watermarks.isThrottled();
+        }
+
+        @Override
+        public void setWatermarks(double high, double low) {
+            _watermarks.setWatermarks(high, low);
+        }
+
+        @Override
+        public String getName() {
+            return _laneName;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+
+        //@return how many events were taken from the front of from, at most max
+        private int drain(Lane from, EventHandler<Object> handler, int max) {
+            Object curr = from._deque.pollFirst();
+            if (curr == null) {
+                return 0;
+            }
+            int count = 0;
+            try {
+                while (true) {
+                    count++;
+                    Object next = count < max ? from._deque.pollFirst() : null;
+                    handler.onEvent(curr, _sequence++, next == null);
+                    if (next == null) {
+                        break;
+                    }
+                    curr = next;
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                from._population.addAndGet(-count);
+                from._watermarks.checkLow();
+            }
+            return count;
+        }
+
+        private int steal(EventHandler<Object> handler, int max) {
+            final Lane[] lanes = _lanes;
+            final int numLanes = lanes.length;
+            for (int i = 1; i < numLanes; i++) {
+                Lane victim = lanes[(_index + i) % numLanes];
+                if (victim._population.get() > 0) {
+                    int stolen = drain(victim, handler, Math.min(_stealBatch, max));
+                    if (stolen > 0) {
+                        _steals.incrementAndGet();
+                        _stolen.addAndGet(stolen);
+                        return stolen;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        private int consume(EventHandler<Object> handler, int max) {
+            int consumed = drain(this, handler, max);
+            if (consumed == 0) {
+                consumed = steal(handler, max);
+            }
+            if (consumed == 0) {
+                //Only once there is nothing left that we could be doing
+                Object owned = _heldOwned;
+                if (owned == null) {
+                    owned = _owned.poll();
+                }
+                //Events claim room in this lane before they are offered and give it back once
+                //they have been handled, so if there is any something published before the
+                //marker may still be on its way in, or be in a thief's hands
+                if (owned != null && _population.get() > 0) {
+                    _heldOwned = owned;
+                } else if (owned != null) {
+                    _heldOwned = null;
+                    try {
+                        handler.onEvent(owned, _sequence++, true);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    consumed = 1;
+                }
+            }
+            return consumed;
+        }
+
+        @Override
+        public void consumeBatch(EventHandler<Object> handler) {
+            consume(handler, _capacity);
+        }
+
+        @Override
+        public void consumeBatch(EventHandler<Object> handler, int max) {
+            consume(handler, Math.max(max, 1));
+        }
+
+        @Override
+        public void consumeBatchWhenAvailable(EventHandler<Object> handler) {
+            for (int i = 0; i <= _spinTries; i++) {
+                if (consume(handler, _capacity) > 0) {
+                    break;
+                }
+                Thread.yield();
+            }
+        }
+
+        //@return true if a slot was claimed, the population only goes up while under capacity
+        private boolean tryClaim() {
+            while (true) {
+                long population = _population.get();
+                if (population >= _capacity) {
+                    return false;
+                }
+                if (_population.compareAndSet(population, population + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void claim() {
+            while (!tryClaim()) {
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public void publish(Object obj) {
+            claim();
+            _deque.offerLast(obj);
+            _watermarks.checkHigh();
+        }
+
+        @Override
+        public void publish(Collection<Object> objs) {
+            for (Object obj: objs) {
+                claim();
+                _deque.offerLast(obj);
+            }
+            _watermarks.checkHigh();
+        }
+
+        @Override
+        public void tryPublish(Object obj) throws InsufficientCapacityException {
+            if (!tryClaim()) {
+                throw InsufficientCapacityException.INSTANCE;
+            }
+            _deque.offerLast(obj);
+            _watermarks.checkHigh();
+        }
+
+        /**
+         * Publish something that only this lane's consumer may see, it is never stolen.
+         * It is handed over once this consumer has nothing else to do, so anything published
+         * to this lane earlier has been consumed, by it or by a thief, before it is seen.
+         */
+        public void publishToOwner(Object obj) {
+            _owned.offer(obj);
+        }
+
+        public long population() {
+            return _population.get();
+        }
+
+        public long capacity() {
+            return _capacity;
+        }
+
+        @Override
+        public void close() {
+            //NOOP
+        }
+    }
+
+    private final String _queueName;
+    private final Lane[] _lanes;
+    private final int _capacity;
+    private final int _stealBatch;
+    private final int _spinTries;
+    private final AtomicLong _steals;
+    private final AtomicLong _stolen;
+
+    public static WorkStealingQ make(String name, int numLanes, Map<String, String> conf) {
+        int size = Q.getInt(conf, "Q.size", 1024);
+        int stealBatch = Q.getInt(conf, "Q.steal.batch", 16);
+        int spin = Q.getInt(conf, "Q.steal.spin", 100);
+        return new WorkStealingQ(name, numLanes, size, stealBatch, spin);
+    }
+
+    /**
+     * @param capacity how many events each lane can hold.
+     * @param stealBatch the most events taken from another lane in one go.
+     */
+    public WorkStealingQ(String queueName, int numLanes, int capacity, int stealBatch, int spinTries) {
+        _queueName = PREFIX + queueName;
+        _capacity = Math.max(capacity, 1);
+        _stealBatch = Math.max(stealBatch, 1);
+        _spinTries = Math.max(spinTries, 0);
+        _steals = TestStats.counter("steal." + _queueName + ".steals");
+        _stolen = TestStats.counter("steal." + _queueName + ".stolen");
+        _lanes = new Lane[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            _lanes[i] = new Lane(i);
+        }
+    }
+
+    public Lane lane(int i) {
+        return _lanes[i];
+    }
+
+    public int numLanes() {
+        return _lanes.length;
+    }
+}